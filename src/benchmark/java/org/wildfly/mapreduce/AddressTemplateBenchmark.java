@@ -0,0 +1,93 @@
+package org.wildfly.mapreduce;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the address template operations used while resolving wildcards. The templates consist of the segments
+ * {@code host}, {@code server}, {@code subsystem} and {@code data-source}. The last {@code wildcards} segments are
+ * wildcards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressTemplateBenchmark {
+
+    static final String[][] SEGMENTS = {
+            {"host", "master"},
+            {"server", "server-one"},
+            {"subsystem", "datasources"},
+            {"data-source", "ExampleDS"}
+    };
+
+    @Param({"1", "2", "3", "4"})
+    int wildcards;
+
+    AddressTemplate template;
+    AddressTemplate resolved;
+
+    @Setup
+    public void setup() {
+        ModelNode address = new ModelNode().setEmptyList();
+        ModelNode resolvedAddress = new ModelNode().setEmptyList();
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            boolean wildcard = i >= SEGMENTS.length - wildcards;
+            address.add(SEGMENTS[i][0], wildcard ? MapReduceConstants.WILDCARD : SEGMENTS[i][1]);
+            resolvedAddress.add(SEGMENTS[i][0], SEGMENTS[i][1]);
+        }
+        template = new AddressTemplate(address);
+        resolved = new AddressTemplate(resolvedAddress);
+    }
+
+    @Benchmark
+    public boolean isResolved() {
+        return template.isResolved();
+    }
+
+    @Benchmark
+    public boolean isResolvedResolved() {
+        return resolved.isResolved();
+    }
+
+    @Benchmark
+    public ModelNode resolvedPart() {
+        return template.resolvedPart();
+    }
+
+    @Benchmark
+    public String firstWildcardType() {
+        return template.firstWildcardType();
+    }
+
+    @Benchmark
+    public AddressTemplate resolve() {
+        return template.resolve("foo");
+    }
+
+    /**
+     * Resolves all wildcards one after another like the {@link AddressResolver} does.
+     */
+    @Benchmark
+    public AddressTemplate resolveAll() {
+        AddressTemplate next = template;
+        while (!next.isResolved()) {
+            next = next.resolve("foo");
+        }
+        return next;
+    }
+}
@@ -0,0 +1,108 @@
+package org.wildfly.mapreduce;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per resource work of a map / reduce operation: Matching the filter, reducing the attributes and
+ * building the result node. The synthetic resources have {@code width} attributes of mixed types, roughly like a
+ * server config or a data source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapReduceBenchmark {
+
+    @Param({"10", "50"})
+    int width;
+
+    ModelNode resource;
+    Filter conjunction;
+    Filter disjunction;
+    ModelNode attributes;
+    Response response;
+
+    @Setup
+    public void setup() {
+        resource = resource(width);
+
+        ModelNode filter = new ModelNode();
+        filter.add("attribute-0", resource.get("attribute-0"));
+        filter.add("attribute-1", resource.get("attribute-1"));
+        filter.add("attribute-4", resource.get("attribute-4"));
+        conjunction = Filter.compile(filter, true);
+        disjunction = Filter.compile(filter, false);
+
+        attributes = new ModelNode();
+        for (int i = 0; i < width; i += 5) {
+            attributes.add("attribute-" + i);
+        }
+
+        response = Response.prepare(new ModelNode().add("host", "master").add("server-config", "server-one"));
+        response.useResult(resource);
+    }
+
+    /**
+     * @return a resource with strings, booleans, numbers, lists and objects (in that order)
+     */
+    static ModelNode resource(final int width) {
+        ModelNode resource = new ModelNode();
+        for (int i = 0; i < width; i++) {
+            ModelNode value = resource.get("attribute-" + i);
+            switch (i % 5) {
+                case 0:
+                    value.set("value-" + i);
+                    break;
+                case 1:
+                    value.set(i % 2 == 0);
+                    break;
+                case 2:
+                    value.set((long) i * 1000);
+                    break;
+                case 3:
+                    value.add("a").add("b").add("c");
+                    break;
+                default:
+                    value.get("nested").set(i);
+                    value.get("name").set("nested-" + i);
+                    break;
+            }
+        }
+        return resource;
+    }
+
+    @Benchmark
+    public boolean matchConjunction() {
+        return conjunction.matches(response, resource);
+    }
+
+    @Benchmark
+    public boolean matchDisjunction() {
+        return disjunction.matches(response, resource);
+    }
+
+    @Benchmark
+    public ModelNode reduce() {
+        return MapReduceHandler.reduce(response, resource, attributes);
+    }
+
+    @Benchmark
+    public ModelNode asModelNode() {
+        return response.asModelNode();
+    }
+}
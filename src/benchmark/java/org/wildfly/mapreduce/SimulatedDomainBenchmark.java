@@ -0,0 +1,75 @@
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.OP;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures complete map / reduce operations against a {@link SimulatedClient simulated domain} with 50 hosts and 500
+ * server configs. Each call to the simulated client takes {@code latency} milliseconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulatedDomainBenchmark {
+
+    @Param({"0", "1"})
+    int latency;
+
+    @Param({"1", "8"})
+    int parallelism;
+
+    @Param({"1", "20"})
+    int batchSize;
+
+    MapReduceHandler handler;
+    ModelNode allServerConfigs;
+    ModelNode autoStartPerHost;
+
+    @Setup
+    public void setup() {
+        handler = new MapReduceHandler(SimulatedClient.domain(50, 10).latency(latency, latency), parallelism,
+                batchSize);
+
+        allServerConfigs = new ModelNode();
+        allServerConfigs.get(OP).set(MAP_REDUCE_OP);
+        allServerConfigs.get(ADDRESS_TEMPLATE).add("host", "*").add("server-config", "*");
+
+        autoStartPerHost = allServerConfigs.clone();
+        autoStartPerHost.get(FILTER).add("auto-start", true);
+        autoStartPerHost.get(GROUP_BY).set("host");
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+    @Benchmark
+    public ModelNode allServerConfigs() {
+        return handler.execute(allServerConfigs);
+    }
+
+    @Benchmark
+    public ModelNode autoStartPerHost() {
+        return handler.execute(autoStartPerHost);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Node of a trie of address segments. Each node holds one segment and points to its parent. The addresses created
+ * while resolving an address template share their common prefixes: The server configs of one host share the node
+ * {@code host=master}. The full address is built only if it's needed using {@link #asModelNode()}.
+ * <p/>
+ * Instances are immutable.
+ *
+ * @author Harald Pehl
+ */
+final class AddressNode {
+
+    static final AddressNode ROOT = new AddressNode(null, null, null);
+
+    private final AddressNode parent;
+    private final String key;
+    private final String value;
+    private final int depth;
+
+    private AddressNode(final AddressNode parent, final String key, final String value) {
+        this.parent = parent;
+        this.key = key;
+        this.value = value;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    AddressNode child(final String key, final String value) {
+        return new AddressNode(this, key, value);
+    }
+
+    /**
+     * @return the parent node or {@code null} for the root node
+     */
+    AddressNode parent() {
+        return parent;
+    }
+
+    /**
+     * @return the number of segments from the root to this node
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * @return a new model node with all segments from the root to this node
+     */
+    ModelNode asModelNode() {
+        AddressNode[] path = new AddressNode[depth];
+        for (AddressNode node = this; node.parent != null; node = node.parent) {
+            path[node.depth - 1] = node;
+        }
+        ModelNode address = new ModelNode().setEmptyList();
+        for (AddressNode node : path) {
+            address.add(node.key, node.value);
+        }
+        return address;
+    }
+
+    @Override
+    public String toString() {
+        return asModelNode().toString();
+    }
+}
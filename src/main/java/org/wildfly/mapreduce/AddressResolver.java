@@ -22,12 +22,16 @@
 package org.wildfly.mapreduce;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.jboss.as.controller.client.helpers.ClientConstants.*;
 import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+import static org.wildfly.mapreduce.MapReduceConstants.WILDCARD;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
@@ -36,77 +40,262 @@ import org.jboss.dmr.ModelNode;
  * Resolves the wildcards in an address template to a list of full qualified resource addresses. Wildcards are resolved
  * using a {@code read-children-names} operation: The address template {@code /host=master/server-config=*} is resolved
  * using the operation: {@code /host=master:read-children-names(child-type=server-config)}.
+ * <p/>
+ * The wildcards are resolved level by level. All {@code read-children-names} operations of one level are handed over
+ * to the {@link OperationExecutor} at once, which executes them concurrently and / or as {@code composite}
+ * operations. Thus the number of round-trips depends on the number of wildcards rather than on the number of
+ * intermediate resources.
+ * <p/>
+ * If a cache is given, the child names are cached per {@code resolvedPart/childType=*} address. Since these addresses
+ * are shared between templates, repeated and overlapping templates don't cause any {@code read-children-names}
+ * operations as long as the cached names are valid.
  *
  * @author Harald Pehl
  */
 class AddressResolver {
 
-    private final ModelControllerClient client;
+    private final OperationExecutor executor;
+    private final ExpiringCache<ModelNode, List<String>> childNames;
+    private final MapReduceMetrics metrics;
+    private final Profile profile;
 
-    AddressResolver(final ModelControllerClient client) {this.client = client;}
+    AddressResolver(final ModelControllerClient client) {
+        this(new OperationExecutor(client, null, 1), null);
+    }
+
+    AddressResolver(final OperationExecutor executor, final ExpiringCache<ModelNode, List<String>> childNames) {
+        this(executor, childNames, new MapReduceMetrics(), Profile.DISABLED);
+    }
+
+    /**
+     * @param executor   the executor for the {@code read-children-names} operations
+     * @param childNames an optional cache for the child names of {@code resolvedPart/childType=*} addresses. Can be
+     *                   {@code null}.
+     * @param metrics    the metrics for the resolution time and the number of resolved addresses
+     * @param profile    the profile of the current map / reduce operation
+     */
+    AddressResolver(final OperationExecutor executor, final ExpiringCache<ModelNode, List<String>> childNames,
+            final MapReduceMetrics metrics, final Profile profile) {
+        this.executor = executor;
+        this.childNames = childNames;
+        this.metrics = metrics;
+        this.profile = profile;
+    }
 
     List<Response> resolve(AddressTemplate start) {
+        return resolve(singletonList(start)).get(0);
+    }
+
+    /**
+     * Resolves several templates at once. The templates are resolved level by level like a single template. If
+     * templates share a prefix (e.g. {@code /host=*&#47;server=*} and {@code
+     * /host=*&#47;server=*&#47;subsystem=datasources/data-source=*}), the {@code read-children-names} operation of
+     * the shared prefix is executed only once.
+     *
+     * @return one list of responses per template
+     */
+    List<List<Response>> resolve(List<AddressTemplate> templates) {
+        long begin = System.nanoTime();
+        List<List<Response>> processed = new ArrayList<>(templates.size());
+        Level level = new Level();
+        for (int i = 0; i < templates.size(); i++) {
+            processed.add(new ArrayList<Response>());
+            start(level, templates.get(i), i, processed);
+        }
+        while (!level.isEmpty()) {
+            // read children of the whole level at once, but only if they're not cached
+            level = level.next(executor.execute(level.operations()), processed);
+        }
+        return resolved(begin, processed);
+    }
+
+    /**
+     * Resolves the template like {@link #resolve(AddressTemplate)}, but executes the {@code read-children-names}
+     * operations asynchronously. The callback is called once all wildcards have been resolved.
+     */
+    void resolveAsync(final AddressTemplate start, final Cancellation cancellation, final Callback callback) {
+        long begin = System.nanoTime();
+        List<List<Response>> processed = new ArrayList<>(1);
+        processed.add(new ArrayList<Response>());
+        Level level = new Level();
+        start(level, start, 0, processed);
+        resolveLevelAsync(begin, level, processed, cancellation, callback);
+    }
+
+    private void start(final Level level, final AddressTemplate start, final int origin,
+            final List<List<Response>> processed) {
         if (start.isResolved()) {
             // are you kidding?
-            return asList(Response.prepare(start.underlying));
-
+            processed.get(origin).add(Response.prepare(start.address()));
         } else {
-            List<AddressTemplate> unresolved = asList(start);
-            List<Response> processed = new ArrayList<>();
-            resolveInternal(unresolved, processed);
-            return processed;
+            level.add(start, origin, processed);
         }
     }
 
-    private void resolveInternal(final List<AddressTemplate> unresolved, final List<Response> processed) {
-        if (unresolved.isEmpty()) {
+    private void resolveLevelAsync(final long begin, final Level level, final List<List<Response>> processed,
+            final Cancellation cancellation, final Callback callback) {
+        if (level.isEmpty()) {
             // hooray we're finished!
+            callback.onResolved(resolved(begin, processed).get(0));
             return;
         }
 
-        ArrayList<AddressTemplate> stillUnresolved = new ArrayList<>();
-        for (AddressTemplate nextUnresolved : unresolved) {
-
-            // read children
-            ModelNode resolvedPart = nextUnresolved.resolvedPart();
-            String wildcardType = nextUnresolved.firstWildcardType();
-            try {
-                List<ModelNode> children = readChildrenNames(resolvedPart, wildcardType);
-                for (ModelNode child : children) {
+        List<ModelNode> operations = level.operations();
+        final ModelNode[] responses = new ModelNode[operations.size()];
+        executor.executeAsync(operations, cancellation, new OperationExecutor.Callback() {
+            @Override
+            public void onResponse(final int index, final ModelNode response, final long nanos) {
+                responses[index] = response;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                resolveLevelAsync(begin, level.next(asList(responses), processed), processed, cancellation,
+                        callback);
+            }
+        });
+    }
 
-                    // populate lists for next call
-                    AddressTemplate template = nextUnresolved.resolve(child.asString());
-                    if (template.isResolved()) {
-                        processed.add(Response.prepare(template.underlying));
-                    } else {
-                        stillUnresolved.add(template);
-                    }
+    private List<List<Response>> resolved(final long begin, final List<List<Response>> processed) {
+        long nanos = System.nanoTime() - begin;
+        metrics.resolution.record(nanos);
+        profile.resolution(nanos);
+        int resolved = 0;
+        for (List<Response> responses : processed) {
+            for (Response response : responses) {
+                if (!response.isFailed()) {
+                    resolved++;
                 }
-            } catch (IOException e) {
-                Response failure = Response.failed(resolvedPart.add(wildcardType, "*"), e.getMessage());
-                processed.add(failure);
             }
         }
-        resolveInternal(stillUnresolved, processed);
+        metrics.resolvedAddresses.addAndGet(resolved);
+        return processed;
     }
 
-    private List<ModelNode> readChildrenNames(ModelNode address, String childType) throws IOException {
+    private ModelNode readChildrenNames(ModelNode address, String childType) {
         ModelNode op = new ModelNode();
         op.get(ADDRESS).set(address);
         op.get(OP).set(READ_CHILDREN_NAMES_OPERATION);
         op.get(CHILD_TYPE).set(childType);
+        return op;
+    }
+
 
-        ModelNode response = client.execute(op);
-        if (!ModelNodeUtils.wasSuccessful(response)) {
-            throw new IOException(ModelNodeUtils.getFailure(response));
+    /**
+     * The templates of one level together with the index of the template they originate from. Templates with the
+     * same wildcard address share one {@code read-children-names} operation. Child names are looked up in the cache
+     * once per wildcard address.
+     */
+    private final class Level {
+
+        private final List<AddressTemplate> templates = new ArrayList<>();
+        private final List<Integer> origins = new ArrayList<>();
+        private final List<Integer> operationIndices = new ArrayList<>();
+        private final Map<ModelNode, Integer> distinct = new HashMap<>();
+        private final List<ModelNode> wildcardAddresses = new ArrayList<>();
+        private final List<List<String>> cached = new ArrayList<>();
+        private final List<ModelNode> operations = new ArrayList<>();
+
+        /**
+         * Adds the template to this level or to the processed responses if it's already resolved.
+         */
+        void add(final AddressTemplate template, final int origin, final List<List<Response>> processed) {
+            if (template.isResolved()) {
+                processed.get(origin).add(Response.prepare(template.prefix()));
+                return;
+            }
+            // the resolved part plus the first wildcard segment: /host=master/server=*
+            ModelNode resolvedPart = template.resolvedPart();
+            ModelNode wildcardAddress = resolvedPart.clone().add(template.firstWildcardType(), WILDCARD);
+            Integer index = distinct.get(wildcardAddress);
+            if (index == null) {
+                index = wildcardAddresses.size();
+                distinct.put(wildcardAddress, index);
+                wildcardAddresses.add(wildcardAddress);
+                List<String> names = childNames != null ? childNames.get(wildcardAddress) : null;
+                if (childNames != null) {
+                    profile.cacheLookup(names != null);
+                }
+                cached.add(names);
+                if (names == null) {
+                    operations.add(readChildrenNames(resolvedPart, template.firstWildcardType()));
+                }
+            }
+            templates.add(template);
+            origins.add(origin);
+            operationIndices.add(index);
         }
 
-        ModelNode result = response.get(RESULT);
-        if (!result.isDefined()) {
-            throw new IOException("No result found for " + ModelNodeUtils.formatAddress(
-                    address) + ":" + READ_CHILDREN_NAMES_OPERATION + "(" + CHILD_TYPE + "=" + childType + ")");
+        boolean isEmpty() {
+            return templates.isEmpty();
+        }
+
+        /**
+         * @return the {@code read-children-names} operations for the wildcard addresses whose child names are not
+         * cached
+         */
+        List<ModelNode> operations() {
+            profile.readChildrenNames(operations.size());
+            return operations;
+        }
+
+        /**
+         * Resolves the next wildcard of each template using the cached child names or the responses of the {@code
+         * read-children-names} operations. Resolved addresses and failures are added to {@code processed}.
+         *
+         * @return the next level with the templates which still contain wildcards
+         */
+        Level next(final List<ModelNode> levelResponses, final List<List<Response>> processed) {
+            // map the responses onto the wildcard addresses
+            Iterator<ModelNode> responses = levelResponses.iterator();
+            Iterator<ModelNode> levelOperations = operations.iterator();
+            List<String> failures = new ArrayList<>(wildcardAddresses.size());
+            for (int i = 0; i < wildcardAddresses.size(); i++) {
+                String failure = null;
+                if (cached.get(i) == null) {
+                    ModelNode response = responses.next();
+                    ModelNode operation = levelOperations.next();
+                    if (!ModelNodeUtils.wasSuccessful(response)) {
+                        failure = ModelNodeUtils.getFailure(response);
+                    } else if (!response.get(RESULT).isDefined()) {
+                        failure = "No result found for " + ModelNodeUtils.formatAddress(operation.get(ADDRESS)) +
+                                ":" + READ_CHILDREN_NAMES_OPERATION + "(" + CHILD_TYPE + "=" + operation
+                                .get(CHILD_TYPE).asString() + ")";
+                    } else {
+                        List<String> names = new ArrayList<>();
+                        for (ModelNode child : response.get(RESULT).asList()) {
+                            names.add(child.asString());
+                        }
+                        cached.set(i, names);
+                        if (childNames != null) {
+                            childNames.put(wildcardAddresses.get(i), names);
+                        }
+                    }
+                }
+                failures.add(failure);
+            }
+
+            Level next = new Level();
+            for (int i = 0; i < templates.size(); i++) {
+                AddressTemplate nextUnresolved = templates.get(i);
+                int origin = origins.get(i);
+                int index = operationIndices.get(i);
+                if (failures.get(index) != null) {
+                    processed.get(origin).add(Response.failed(wildcardAddresses.get(index), failures.get(index)));
+                    continue;
+                }
+                for (String name : cached.get(index)) {
+                    // populate lists for next call
+                    next.add(nextUnresolved.resolve(name), origin, processed);
+                }
+            }
+            return next;
         }
+    }
+
+
+    interface Callback {
 
-        return result.asList();
+        void onResolved(List<Response> responses);
     }
 }
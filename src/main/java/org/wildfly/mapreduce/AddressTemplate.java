@@ -21,67 +21,118 @@
  */
 package org.wildfly.mapreduce;
 
-import static java.util.Arrays.asList;
 import static org.wildfly.mapreduce.MapReduceConstants.WILDCARD;
 
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.Property;
 
 /**
  * A data holder for a resource address with one or multiple wildcards.
+ * <p/>
+ * The address is parsed once into immutable arrays of keys and values. The position of the first wildcard is
+ * precomputed, so {@link #isResolved()} and {@link #firstWildcardType()} don't need to look at the segments. The part
+ * before the first wildcard is kept as {@link AddressNode}. Templates created by {@link #resolve(String...)} share the
+ * arrays of their parent and extend its resolved part, so siblings share their common prefix. Their address node is
+ * built only if it's requested.
  *
  * @author Harald Pehl
  */
 final class AddressTemplate {
 
-    final ModelNode underlying;
+    private final String[] keys;
+    private final String[] values; // only the values from firstWildcard on are valid for resolved templates
+    private final int firstWildcard; // == keys.length if resolved
+    private final AddressNode prefix; // the segments before firstWildcard
+    private volatile ModelNode address; // built on demand, templates are shared between threads
 
     AddressTemplate(final ModelNode address) {
-        this.underlying = address;
+        List<Property> segments = address.isDefined() ? address.asPropertyList() : Collections.<Property>emptyList();
+        this.keys = new String[segments.size()];
+        this.values = new String[segments.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = segments.get(i).getName();
+            values[i] = segments.get(i).getValue().asString();
+        }
+        int index = 0;
+        AddressNode node = AddressNode.ROOT;
+        while (index < keys.length && !WILDCARD.equals(values[index])) {
+            node = node.child(keys[index], values[index]);
+            index++;
+        }
+        this.firstWildcard = index;
+        this.prefix = node;
+        this.address = address;
+    }
+
+    private AddressTemplate(final String[] keys, final String[] values, final int firstWildcard,
+            final AddressNode prefix) {
+        this.keys = keys;
+        this.values = values;
+        this.firstWildcard = firstWildcard;
+        this.prefix = prefix;
     }
 
     @Override
     public String toString() {
-        return underlying.toString();
+        return address().toString();
     }
 
-    boolean isResolved() {
-        for (Property property : underlying.asPropertyList()) {
-            if (WILDCARD.equals(property.getValue().asString())) {
-                return false;
+    /**
+     * @return the address of this template. The address is built on demand for templates created by {@link
+     * #resolve(String...)}.
+     */
+    ModelNode address() {
+        ModelNode result = address;
+        if (result == null) {
+            // racing threads build equal addresses, the node is published once it's complete
+            result = prefix.asModelNode();
+            for (int i = firstWildcard; i < keys.length; i++) {
+                result.add(keys[i], values[i]);
             }
+            address = result;
         }
-        return true;
+        return result;
+    }
+
+    /**
+     * @return the resolved part of this template as node of the address trie
+     */
+    AddressNode prefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the number of segments
+     */
+    int size() {
+        return keys.length;
+    }
+
+    String key(final int index) {
+        return keys[index];
+    }
+
+    boolean isResolved() {
+        return firstWildcard == keys.length;
     }
 
+    /**
+     * @return the segments before the first wildcard. Builds a new model node for templates with wildcards, so call
+     * it once per template and level.
+     */
     ModelNode resolvedPart() {
         if (isResolved()) {
-            return underlying;
+            return address();
         } else {
-            ModelNode resolved = new ModelNode().setEmptyList();
-            for (Property property : underlying.asPropertyList()) {
-                if (WILDCARD.equals(property.getValue().asString())) {
-                    break;
-                }
-                resolved.add(property.getName(), property.getValue());
-            }
-            return resolved;
+            return prefix.asModelNode();
         }
     }
 
     String firstWildcardType() {
-        if (isResolved()) {
-            return null;
-        } else {
-            for (Property property : underlying.asPropertyList()) {
-                if (WILDCARD.equals(property.getValue().asString())) {
-                    return property.getName();
-                }
-            }
-            return null;
-        }
+        return isResolved() ? null : keys[firstWildcard];
     }
 
     /**
@@ -97,20 +148,21 @@ final class AddressTemplate {
         if (value == null || value.length == 0 || isResolved()) {
             return this;
         } else {
-            ModelNode resolved = new ModelNode();
-            Iterator<String> values = asList(value).iterator();
-            for (Property property : underlying.asPropertyList()) {
-                if (WILDCARD.equals(property.getValue().asString())) {
-                    if (values.hasNext()) {
-                        resolved.add(property.getName(), values.next());
-                    } else {
-                        resolved.add(property.getName(), property.getValue());
-                    }
-                } else {
-                    resolved.add(property.getName(), property.getValue());
+            int index = firstWildcard;
+            AddressNode node = prefix;
+            for (String next : value) {
+                if (index == keys.length) {
+                    break;
+                }
+                // the wildcard itself, followed by the next resolved segments
+                node = node.child(keys[index], next);
+                index++;
+                while (index < keys.length && !WILDCARD.equals(values[index])) {
+                    node = node.child(keys[index], values[index]);
+                    index++;
                 }
             }
-            return new AddressTemplate(resolved);
+            return new AddressTemplate(keys, values, index, node);
         }
     }
 }
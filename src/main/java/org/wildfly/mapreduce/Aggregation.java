@@ -0,0 +1,337 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.wildfly.mapreduce.MapReduceConstants.WILDCARD;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * Compiled form of the {@code aggregate} parameter of a map / reduce operation. The parameter is a list of {@code
+ * (function => attribute)} properties like {@code [("count" => "*"), ("sum" => "active-count")]}. Supported
+ * functions are {@code count}, {@code sum}, {@code min}, {@code max}, {@code avg} and {@code distinct}. The attribute
+ * {@code *} is only supported by {@code count} and counts the resources rather than the defined values.
+ * <p/>
+ * The results are accumulated one by one using primitive state, so the single results don't have to be kept. Undefined
+ * attribute values are ignored. The functions {@code sum}, {@code min}, {@code max} and {@code avg} skip values which
+ * are not numeric (like {@code "STARTED"}) and count them instead. The aggregate is a model node with one attribute
+ * per function named like {@code sum(active-count)}. If values have been skipped, the aggregate contains the
+ * attribute {@code non-numeric} with the number of skipped values per function:
+ * {@code "non-numeric" => {"sum(status)" => 3L}}.
+ * <p/>
+ * Integral values are summed up as {@code long}. If the sum overflows, it continues as {@code double}, so the result
+ * is a floating point number which may be imprecise, but never wraps around.
+ * <p/>
+ * Instances are not thread safe and must be used for one map / reduce operation only. Use {@link #copy()} to get
+ * a fresh instance with the same functions, e.g. for each group of a {@link Grouping}.
+ *
+ * @author Harald Pehl
+ */
+final class Aggregation {
+
+    static final String NON_NUMERIC = "non-numeric";
+
+    /**
+     * @return the compiled aggregation or {@code null} if {@code aggregate} is undefined
+     *
+     * @throws IllegalArgumentException for an invalid aggregate parameter
+     */
+    static Aggregation compile(final ModelNode aggregate) {
+        if (!aggregate.isDefined()) {
+            return null;
+        }
+        if (aggregate.getType() != ModelType.LIST) {
+            throw new IllegalArgumentException(
+                    "Aggregate must be of type " + ModelType.LIST + ", but was " + aggregate.getType());
+        }
+        List<Property> properties = aggregate.asPropertyList();
+        if (properties.isEmpty()) {
+            throw new IllegalArgumentException("Aggregate must not be empty");
+        }
+        Accumulator[] accumulators = new Accumulator[properties.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = accumulator(properties.get(i).getName(), properties.get(i).getValue().asString());
+        }
+        return new Aggregation(accumulators);
+    }
+
+    private static Accumulator accumulator(final String function, final String attribute) {
+        if (WILDCARD.equals(attribute) && !"count".equals(function)) {
+            throw new IllegalArgumentException("Wildcard attribute not supported for aggregate function " + function);
+        }
+        switch (function) {
+            case "count":
+                return new Count(attribute);
+            case "sum":
+                return new Sum(attribute);
+            case "min":
+                return new MinMax(function, attribute, true);
+            case "max":
+                return new MinMax(function, attribute, false);
+            case "avg":
+                return new Avg(attribute);
+            case "distinct":
+                return new Distinct(attribute);
+            default:
+                throw new IllegalArgumentException("Unknown aggregate function " + function);
+        }
+    }
+
+    private final Accumulator[] accumulators;
+
+    private Aggregation(final Accumulator[] accumulators) {
+        this.accumulators = accumulators;
+    }
+
+    /**
+     * @return a new instance with the same functions, but without any accumulated state
+     */
+    Aggregation copy() {
+        Accumulator[] copies = new Accumulator[accumulators.length];
+        for (int i = 0; i < accumulators.length; i++) {
+            copies[i] = accumulator(accumulators[i].function, accumulators[i].attribute);
+        }
+        return new Aggregation(copies);
+    }
+
+    /**
+     * @return the names of the attributes used by the aggregate functions
+     */
+    Set<String> attributeNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Accumulator accumulator : accumulators) {
+            if (!WILDCARD.equals(accumulator.attribute)) {
+                names.add(accumulator.attribute);
+            }
+        }
+        return names;
+    }
+
+    void accumulate(final ModelNode resource) {
+        for (Accumulator accumulator : accumulators) {
+            if (WILDCARD.equals(accumulator.attribute)) {
+                accumulator.add(resource);
+            } else if (resource.hasDefined(accumulator.attribute)) {
+                ModelNode value = resource.get(accumulator.attribute);
+                if (accumulator.numeric && !Accumulator.isNumeric(value)) {
+                    accumulator.skipped++;
+                } else {
+                    accumulator.add(value);
+                }
+            }
+        }
+    }
+
+    ModelNode result() {
+        ModelNode result = new ModelNode().setEmptyObject();
+        for (Accumulator accumulator : accumulators) {
+            result.get(accumulator.name()).set(accumulator.result());
+        }
+        for (Accumulator accumulator : accumulators) {
+            if (accumulator.skipped > 0) {
+                result.get(NON_NUMERIC, accumulator.name()).set(accumulator.skipped);
+            }
+        }
+        return result;
+    }
+
+
+    // ------------------------------------------------------ accumulators
+
+    private static abstract class Accumulator {
+
+        final String function;
+        final String attribute;
+        final boolean numeric;
+        long skipped;
+
+        Accumulator(final String function, final String attribute, final boolean numeric) {
+            this.function = function;
+            this.attribute = attribute;
+            this.numeric = numeric;
+        }
+
+        String name() {
+            return function + "(" + attribute + ")";
+        }
+
+        abstract void add(ModelNode value);
+
+        abstract ModelNode result();
+
+        static boolean isIntegral(ModelNode value) {
+            return value.getType() == ModelType.INT || value.getType() == ModelType.LONG || value
+                    .getType() == ModelType.BIG_INTEGER;
+        }
+
+        static boolean isNumeric(ModelNode value) {
+            return isIntegral(value) || value.getType() == ModelType.DOUBLE || value
+                    .getType() == ModelType.BIG_DECIMAL;
+        }
+    }
+
+
+    private static final class Count extends Accumulator {
+
+        private long count;
+
+        Count(final String attribute) {super("count", attribute, false);}
+
+        @Override
+        void add(final ModelNode value) {
+            count++;
+        }
+
+        @Override
+        ModelNode result() {
+            return new ModelNode(count);
+        }
+    }
+
+
+    private static final class Sum extends Accumulator {
+
+        private long longSum;
+        private double doubleSum;
+        private boolean floating;
+
+        Sum(final String attribute) {super("sum", attribute, true);}
+
+        @Override
+        void add(final ModelNode value) {
+            if (value.getType() == ModelType.BIG_INTEGER && value.asBigInteger().bitLength() > 63) {
+                doubleSum += value.asDouble();
+                floating = true;
+            } else if (isIntegral(value)) {
+                long addend = value.asLong();
+                long sum = longSum + addend;
+                if (((longSum ^ sum) & (addend ^ sum)) < 0) {
+                    // overflow: Math.addExact() is not available on Java 7
+                    doubleSum += (double) longSum + addend;
+                    longSum = 0;
+                    floating = true;
+                } else {
+                    longSum = sum;
+                }
+            } else {
+                doubleSum += value.asDouble();
+                floating = true;
+            }
+        }
+
+        @Override
+        ModelNode result() {
+            return floating ? new ModelNode(longSum + doubleSum) : new ModelNode(longSum);
+        }
+    }
+
+
+    private static final class MinMax extends Accumulator {
+
+        private final boolean min;
+        private long longValue;
+        private double doubleValue;
+        private boolean floating;
+        private boolean empty = true;
+
+        MinMax(final String function, final String attribute, final boolean min) {
+            super(function, attribute, true);
+            this.min = min;
+        }
+
+        @Override
+        void add(final ModelNode value) {
+            if (!floating && isIntegral(value)) {
+                long next = value.asLong();
+                if (empty || (min ? next < longValue : next > longValue)) {
+                    longValue = next;
+                }
+            } else {
+                if (!floating) {
+                    doubleValue = longValue;
+                    floating = true;
+                }
+                double next = value.asDouble();
+                if (empty || (min ? next < doubleValue : next > doubleValue)) {
+                    doubleValue = next;
+                }
+            }
+            empty = false;
+        }
+
+        @Override
+        ModelNode result() {
+            if (empty) {
+                return new ModelNode();
+            }
+            return floating ? new ModelNode(doubleValue) : new ModelNode(longValue);
+        }
+    }
+
+
+    private static final class Avg extends Accumulator {
+
+        private double sum;
+        private long count;
+
+        Avg(final String attribute) {super("avg", attribute, true);}
+
+        @Override
+        void add(final ModelNode value) {
+            sum += value.asDouble();
+            count++;
+        }
+
+        @Override
+        ModelNode result() {
+            return count == 0 ? new ModelNode() : new ModelNode(sum / count);
+        }
+    }
+
+
+    private static final class Distinct extends Accumulator {
+
+        private final Set<ModelNode> values = new LinkedHashSet<>();
+
+        Distinct(final String attribute) {super("distinct", attribute, false);}
+
+        @Override
+        void add(final ModelNode value) {
+            values.add(value);
+        }
+
+        @Override
+        ModelNode result() {
+            ModelNode result = new ModelNode().setEmptyList();
+            for (ModelNode value : values) {
+                result.add(value);
+            }
+            return result;
+        }
+    }
+}
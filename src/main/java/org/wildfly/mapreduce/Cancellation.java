@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Keeps track of the management operations in flight for one asynchronous map / reduce operation. Once cancelled,
+ * all operations in flight and all operations registered afterwards are cancelled. All methods are thread safe.
+ *
+ * @author Harald Pehl
+ */
+final class Cancellation {
+
+    private final Set<AsyncFuture<?>> inFlight = new HashSet<>();
+    private boolean cancelled;
+
+    /**
+     * Registers an operation in flight. If this cancellation has already been cancelled, the operation is cancelled
+     * right away.
+     */
+    void register(final AsyncFuture<?> future) {
+        boolean cancel;
+        synchronized (this) {
+            cancel = cancelled;
+            if (!cancel) {
+                inFlight.add(future);
+            }
+        }
+        if (cancel) {
+            future.asyncCancel(true);
+        }
+    }
+
+    synchronized void unregister(final AsyncFuture<?> future) {
+        inFlight.remove(future);
+    }
+
+    void cancel() {
+        Set<AsyncFuture<?>> cancel;
+        synchronized (this) {
+            cancelled = true;
+            cancel = new HashSet<>(inFlight);
+            inFlight.clear();
+        }
+        for (AsyncFuture<?> future : cancel) {
+            future.asyncCancel(true);
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Re-evaluates a map / reduce operation periodically and passes the differences to the previous evaluation to a
+ * {@link MapReduceSubscriptionListener}.
+ * <p/>
+ * The operation is executed using {@link MapReduceHandler#executeAsync(ModelNode)}, so no thread is blocked while an
+ * evaluation is outstanding. Only the start of an evaluation and the comparison of its results run on the scheduler.
+ * Thus many continuous queries can share a scheduler with a few threads. The next evaluation is scheduled once the
+ * previous one has been compared, so evaluations of one query never overlap.
+ *
+ * @author Harald Pehl
+ */
+final class ContinuousQuery implements MapReduceSubscription, Runnable {
+
+    private final MapReduceHandler handler;
+    private final ScheduledExecutorService scheduler;
+    private final ModelNode mapReduceOp;
+    private final long intervalNanos;
+    private final MapReduceSubscriptionListener listener;
+    private Snapshot snapshot; // only accessed by one evaluation at a time
+    private boolean cancelled; // guarded by this
+    private ScheduledFuture<?> next; // guarded by this
+    private AsyncFuture<ModelNode> evaluation; // guarded by this
+
+    ContinuousQuery(final MapReduceHandler handler, final ScheduledExecutorService scheduler,
+            final ModelNode mapReduceOp, final long interval, final TimeUnit unit,
+            final MapReduceSubscriptionListener listener) {
+        this.handler = handler;
+        this.scheduler = scheduler;
+        this.mapReduceOp = mapReduceOp;
+        this.intervalNanos = unit.toNanos(interval);
+        this.listener = listener;
+        this.snapshot = Snapshot.EMPTY;
+    }
+
+    /**
+     * Schedules the first evaluation right away.
+     */
+    void start() {
+        schedule(0);
+    }
+
+    @Override
+    public void run() {
+        final AsyncFuture<ModelNode> future;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            future = handler.executeAsync(mapReduceOp);
+            evaluation = future;
+        }
+        future.addListener(new AsyncFuture.Listener<ModelNode, Void>() {
+            @Override
+            public void handleComplete(final AsyncFuture<? extends ModelNode> future, final Void attachment) {
+                try {
+                    evaluated(future.getUninterruptibly());
+                } catch (ExecutionException e) {
+                    evaluated(ModelNodeUtils.failure("Evaluation failed: " + e.getCause()));
+                }
+            }
+
+            @Override
+            public void handleFailed(final AsyncFuture<? extends ModelNode> future, final Throwable cause,
+                    final Void attachment) {
+                evaluated(ModelNodeUtils.failure("Evaluation failed: " + cause));
+            }
+
+            @Override
+            public void handleCancelled(final AsyncFuture<? extends ModelNode> future, final Void attachment) {
+                // reported unless the subscription itself has been cancelled
+                evaluated(ModelNodeUtils.failure("Evaluation cancelled"));
+            }
+        }, null);
+    }
+
+    /**
+     * Compares the result on the scheduler to keep the threads of the client free.
+     */
+    private void evaluated(final ModelNode result) {
+        try {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compare(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // handler has been shut down
+            synchronized (this) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Reports the differences to the previous evaluation and schedules the next evaluation, even if the comparison
+     * or the listener failed.
+     */
+    private void compare(final ModelNode result) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+        }
+        try {
+            Snapshot current = Snapshot.of(result);
+            if (current == null) {
+                listener.onFailure(result);
+            } else {
+                ModelNode diff = current.diff(snapshot);
+                // the next diff only needs the hashes
+                snapshot = current.withoutResults();
+                if (!Snapshot.isEmpty(diff)) {
+                    listener.onChange(diff);
+                }
+            }
+        } catch (RuntimeException e) {
+            listener.onFailure(ModelNodeUtils.failure("Comparison failed: " + e));
+        } finally {
+            schedule(intervalNanos);
+        }
+    }
+
+    private synchronized void schedule(final long delayNanos) {
+        if (!cancelled) {
+            try {
+                next = scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // handler has been shut down
+                cancelled = true;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void cancel() {
+        cancelled = true;
+        if (next != null) {
+            next.cancel(false);
+        }
+        if (evaluation != null) {
+            evaluation.cancel(true);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
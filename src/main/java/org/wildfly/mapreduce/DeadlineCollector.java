@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Passes the responses to the delegate until the operation has either finished or expired. Keeps track of the
+ * responses being read, so that the outstanding ones can be reported as failed once the operation has expired. If
+ * the operation expires before the template has been resolved, the template itself is reported as failed. The
+ * failed responses passed to the delegate are counted in the metrics.
+ *
+ * @author Harald Pehl
+ */
+final class DeadlineCollector implements Collector {
+
+    private final Collector delegate;
+    private final ModelNode addressTemplate;
+    private final MapReduceMetrics metrics;
+    private List<Response> responses;
+    private int offset;
+    private Set<Response> completed;
+    private boolean finished;
+    private boolean expired;
+
+    DeadlineCollector(final Collector delegate, final ModelNode addressTemplate, final MapReduceMetrics metrics) {
+        this.delegate = delegate;
+        this.addressTemplate = addressTemplate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the responses which are read next. They're collected using {@code offset + index}.
+     */
+    synchronized void reading(final List<Response> responses, final int offset) {
+        this.responses = responses;
+        this.offset = offset;
+        this.completed = Collections.newSetFromMap(new IdentityHashMap<Response, Boolean>());
+    }
+
+    @Override
+    public synchronized void collect(final int index, final Response response) {
+        if (!expired) {
+            if (completed != null) {
+                completed.add(response);
+            }
+            if (response.isFailed()) {
+                metrics.failed.incrementAndGet();
+            }
+            delegate.collect(index, response);
+        }
+    }
+
+    synchronized void filtered(final Response response) {
+        if (completed != null) {
+            completed.add(response);
+        }
+    }
+
+    /**
+     * @return {@code true} if the operation has finished in time, {@code false} if it has already expired
+     */
+    synchronized boolean finish() {
+        if (expired) {
+            return false;
+        }
+        finished = true;
+        return true;
+    }
+
+    /**
+     * Reports the outstanding responses as failed and drops all responses collected afterwards.
+     *
+     * @return {@code true} if the operation has expired, {@code false} if it has already finished or expired
+     */
+    synchronized boolean expire(final String failure) {
+        if (finished || expired) {
+            return false;
+        }
+        if (responses == null) {
+            metrics.failed.incrementAndGet();
+            delegate.collect(0, Response.failed(addressTemplate, failure));
+        } else {
+            for (int i = 0; i < responses.size(); i++) {
+                Response response = responses.get(i);
+                if (!completed.contains(response)) {
+                    metrics.failed.incrementAndGet();
+                    // keep the failures of the resolution
+                    delegate.collect(offset + i, response.isFailed() ? response : Response.failed(
+                            response.address(), failure));
+                }
+            }
+        }
+        expired = true;
+        return true;
+    }
+
+    synchronized boolean isExpired() {
+        return expired;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * A size bounded LRU cache whose entries expire after a fixed time to live. Keeps track of hits, misses and
+ * evictions. All methods are thread safe.
+ *
+ * @author Harald Pehl
+ */
+final class ExpiringCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    @SuppressWarnings("serial") // the anonymous map is never serialized
+    ExpiringCache(final int maxSize, final long ttl, final TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value or {@code null} if there's no value or the value has expired.
+     */
+    synchronized V get(final K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    synchronized void put(final K key, final V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    /**
+     * @return the statistics of this cache as model node with the attributes {@code size}, {@code hits}, {@code
+     * misses} and {@code evictions}
+     */
+    synchronized ModelNode statistics() {
+        ModelNode statistics = new ModelNode();
+        statistics.get("size").set(entries.size());
+        statistics.get("hits").set(hits);
+        statistics.get("misses").set(misses);
+        statistics.get("evictions").set(evictions);
+        return statistics;
+    }
+
+
+    private static final class Entry<V> {
+
+        final V value;
+        final long created;
+
+        Entry(final V value, final long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
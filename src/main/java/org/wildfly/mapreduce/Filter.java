@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+
+/**
+ * Immutable, compiled form of the {@code filter} and {@code conjunct} parameters of a map / reduce operation. The
+ * filter is compiled once per operation and then matched against each resource.
+ * <p/>
+ * The clauses are ordered by the cost of their comparison: Simple values like booleans, numbers and strings are
+ * compared before lists and objects. The evaluation stops at the first decisive clause: The first mismatch for a
+ * conjunction, the first match for a disjunction. Thus filter attributes which are not defined for a resource are
+ * only reported if their clause is evaluated.
+ *
+ * @author Harald Pehl
+ */
+final class Filter {
+
+    /**
+     * @return the compiled filter or {@code null} if {@code filter} is undefined
+     */
+    static Filter compile(final ModelNode filter, final boolean conjunct) {
+        if (!filter.isDefined()) {
+            return null;
+        }
+        List<Property> clauses = new ArrayList<>(filter.asPropertyList());
+        Collections.sort(clauses, new Comparator<Property>() {
+            @Override
+            public int compare(final Property p1, final Property p2) {
+                return cost(p1.getValue()) - cost(p2.getValue());
+            }
+        });
+
+        String[] names = new String[clauses.size()];
+        ModelNode[] values = new ModelNode[clauses.size()];
+        for (int i = 0; i < clauses.size(); i++) {
+            names[i] = clauses.get(i).getName();
+            values[i] = clauses.get(i).getValue();
+        }
+        return new Filter(names, values, conjunct);
+    }
+
+    private static int cost(final ModelNode value) {
+        switch (value.getType()) {
+            case LIST:
+            case OBJECT:
+            case PROPERTY:
+                return 2;
+            case BYTES:
+            case EXPRESSION:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private final String[] names;
+    private final ModelNode[] values;
+    private final boolean conjunct;
+
+    private Filter(final String[] names, final ModelNode[] values, final boolean conjunct) {
+        this.names = names;
+        this.values = values;
+        this.conjunct = conjunct;
+    }
+
+    /**
+     * Matches the resource against this filter. If an evaluated filter attribute is not defined for the resource, the
+     * response is marked as failed and {@code false} is returned.
+     */
+    boolean matches(final Response response, final ModelNode resource) {
+        for (int i = 0; i < names.length; i++) {
+            if (!resource.hasDefined(names[i])) {
+                response.makeFailed("Filter attribute \"" + names[i] + "\" not defined for this resource");
+                return false;
+            }
+            boolean match = resource.get(names[i]).equals(values[i]);
+            if (match != conjunct) {
+                // decisive clause: a mismatch for conjunctions, a match for disjunctions
+                return match;
+            }
+        }
+        // all clauses matched (conjunction) or no clause matched (disjunction)
+        return conjunct;
+    }
+
+    Set<String> attributeNames() {
+        Set<String> attributes = new LinkedHashSet<>();
+        Collections.addAll(attributes, names);
+        return attributes;
+    }
+}
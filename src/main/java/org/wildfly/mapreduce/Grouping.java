@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * Compiled form of the {@code group-by} parameter of a map / reduce operation. The results are grouped either by the
+ * value of an address segment (if the address template contains the {@code group-by} key, e.g. {@code host}) or by
+ * the value of an attribute. Each group has its own {@link Aggregation}. If no aggregate functions are specified, the
+ * resources of each group are counted.
+ * <p/>
+ * The result is a list with one node per group ordered by the group value. Each node contains the group value and
+ * the aggregate values: {@code [{"host" => "master", "count(*)" => 3L}, {"host" => "slave", "count(*)" => 2L}]}.
+ * Resources without a value for the {@code group-by} attribute form a separate group with an undefined group value,
+ * which is the last group of the result.
+ * <p/>
+ * Instances are not thread safe and must be used for one map / reduce operation only.
+ *
+ * @author Harald Pehl
+ */
+final class Grouping {
+
+    /**
+     * @return the compiled grouping or {@code null} if {@code groupBy} is undefined
+     */
+    static Grouping compile(final ModelNode groupBy, final AddressTemplate addressTemplate,
+            final Aggregation aggregation) {
+        if (!groupBy.isDefined()) {
+            return null;
+        }
+        if (groupBy.getType() != ModelType.STRING) {
+            throw new IllegalArgumentException(
+                    "Group by must be of type " + ModelType.STRING + ", but was " + groupBy.getType());
+        }
+        String key = groupBy.asString();
+        boolean segment = false;
+        for (int i = 0; i < addressTemplate.size() && !segment; i++) {
+            segment = key.equals(addressTemplate.key(i));
+        }
+        Aggregation prototype = aggregation != null ? aggregation : Aggregation
+                .compile(new ModelNode().add("count", "*"));
+        return new Grouping(key, segment, prototype);
+    }
+
+    private final String key;
+    private final boolean segment;
+    private final Aggregation prototype;
+    private final Map<String, Group> groups;
+    private Group undefined;
+
+    private Grouping(final String key, final boolean segment, final Aggregation prototype) {
+        this.key = key;
+        this.segment = segment;
+        this.prototype = prototype;
+        this.groups = new TreeMap<>();
+    }
+
+    /**
+     * @return the names of the attributes used for grouping and aggregation
+     */
+    Set<String> attributeNames() {
+        Set<String> names = prototype.attributeNames();
+        if (!segment) {
+            names.add(key);
+        }
+        return names;
+    }
+
+    void accumulate(final ModelNode address, final ModelNode resource) {
+        ModelNode value = segment ? segmentValue(address) : resource.has(key) ? resource.get(key) : new ModelNode();
+        Group group;
+        if (value.isDefined()) {
+            group = groups.get(value.asString());
+            if (group == null) {
+                group = new Group(value, prototype.copy());
+                groups.put(value.asString(), group);
+            }
+        } else {
+            if (undefined == null) {
+                undefined = new Group(value, prototype.copy());
+            }
+            group = undefined;
+        }
+        group.aggregation.accumulate(resource);
+    }
+
+    private ModelNode segmentValue(final ModelNode address) {
+        for (Property property : address.asPropertyList()) {
+            if (key.equals(property.getName())) {
+                return property.getValue();
+            }
+        }
+        return new ModelNode();
+    }
+
+    ModelNode result() {
+        ModelNode result = new ModelNode().setEmptyList();
+        for (Group group : groups.values()) {
+            result.add(group.asModelNode());
+        }
+        if (undefined != null) {
+            result.add(undefined.asModelNode());
+        }
+        return result;
+    }
+
+
+    private final class Group {
+
+        final ModelNode value;
+        final Aggregation aggregation;
+
+        Group(final ModelNode value, final Aggregation aggregation) {
+            this.value = value;
+            this.aggregation = aggregation;
+        }
+
+        ModelNode asModelNode() {
+            ModelNode node = new ModelNode();
+            node.get(key).set(value);
+            for (Property property : aggregation.result().asPropertyList()) {
+                node.get(property.getName()).set(property.getValue());
+            }
+            return node;
+        }
+    }
+}
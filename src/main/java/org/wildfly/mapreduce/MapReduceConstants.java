@@ -24,13 +24,29 @@ package org.wildfly.mapreduce;
  */
 public interface MapReduceConstants {
 
+    String ADDED = "added";
     String ADDRESS = "address";
     String ADDRESS_TEMPLATE = "address-template";
+    String AGGREGATE = "aggregate";
+    String ATTRIBUTES_ONLY = "attributes-only";
+    String CHANGED = "changed";
+    String CURSOR = "cursor";
+    String DELTA = "delta";
     String FAILED = "failed";
+    String FAILED_RESOURCES = "failed-resources";
     String FILTER = "filter";
     String FILTER_CONJUNCT = "conjunct";
+    String GROUP_BY = "group-by";
+    String LIMIT = "limit";
     String MAP_REDUCE_OP = "map-reduce";
+    String PARTIAL = "partial";
+    String PREFILTER = "prefilter";
+    String PROFILE = "profile";
     String REDUCE = "reduce";
+    String REMOVED = "removed";
+    String SERVER_SIDE_RESOLUTION = "server-side-resolution";
+    String TIMEOUT = "timeout";
+    String VERSION = "version";
     String WILDCARD = "*";
 }
 
@@ -21,20 +21,44 @@
  */
 package org.wildfly.mapreduce;
 
+import static java.util.Collections.singletonList;
 import static org.jboss.as.controller.client.helpers.ClientConstants.*;
 import static org.wildfly.mapreduce.MapReduceConstants.*;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
 import org.jboss.dmr.Property;
+import org.jboss.threads.AsyncFuture;
 
 /**
  * A handler which resolves map / reduce operations against a DMR endpoint. A map / reduce operation consists of three
@@ -51,6 +75,75 @@ import org.jboss.dmr.Property;
  * <p/>
  * The DMR endpoint can be specified using the system properties {@code management.host} and {@code management.port},
  * which are "localhost" and 9990 by default.
+ * <p/>
+ * The {@code read-children-names} and {@code read-resource} operations are executed sequentially by default. Use the
+ * system property {@code map-reduce.parallelism} or the related constructor to execute up to <em>n</em> operations
+ * concurrently. To save round-trips, the {@code read-resource} operations can be packed into {@code composite}
+ * operations of up to {@code map-reduce.batch-size} steps. The results are always returned in the order of the
+ * resolved addresses. Use {@link #execute(ModelNode, MapReduceListener)} to receive each result as soon as it's
+ * complete or {@link #executeAsync(ModelNode)} to execute the operation without blocking a thread.
+ * <p/>
+ * If a list of reducing attributes is given, the resources are not read completely. Instead only the filter and
+ * reduce attributes are read using {@code read-attribute} operations.
+ * <p/>
+ * Instead of returning one result per resource, the results can be aggregated using the functions {@code count},
+ * {@code sum}, {@code min}, {@code max}, {@code avg} and {@code distinct}. See {@link Aggregation} for details.
+ * Using {@code group-by} the aggregate is calculated per address segment or attribute value. See {@link Grouping}
+ * for details.
+ * <p/>
+ * If a filter, but no list of reducing attributes is given and the operation contains {@code prefilter=true}, the
+ * filter is evaluated in two phases: First only the filter attributes are read for all resolved addresses. Then the
+ * complete resources are read for the matching addresses only. This pays off for selective filters only, since each
+ * matching resource is read twice.
+ * <p/>
+ * To skip the resolution of frequently used address templates, the child names read by {@code read-children-names}
+ * can be cached. Use the system properties {@code map-reduce.resolution-cache.size} (0 by default, which disables the
+ * cache) and {@code map-reduce.resolution-cache.ttl} (time to live in milliseconds) to configure the cache.
+ * <p/>
+ * If the map / reduce operation contains {@code server-side-resolution=true}, the address template is sent as one
+ * wildcard {@code read-resource} operation and the resolution is left to the server. If the endpoint doesn't support
+ * this for the given template, the wildcards are resolved on the client as usual.
+ * <p/>
+ * Each handler keeps counters and per phase latency histograms, which are available using {@link #metrics()}. If the
+ * system property {@code map-reduce.jmx} is {@code true}, they're registered as MXBean at the platform MBean server
+ * until the handler is {@link #shutdown() shut down}. The size of the results is only measured if the system property
+ * {@code map-reduce.metrics.result-bytes} is {@code true}. See {@link MapReduceMetricsMXBean}.
+ * If the map / reduce operation contains {@code profile=true}, the result contains a profile of this very operation.
+ * See {@link Profile}.
+ * <p/>
+ * A {@code timeout} in milliseconds limits the time a map / reduce operation may take. Once the timeout has expired,
+ * the management operations in flight are cancelled and the operation returns the results collected so far. The
+ * addresses which have not been read are reported as failed and the result contains {@code partial=true}.
+ * <p/>
+ * Use {@code limit} to return at most <em>n</em> results. The resources are then read in chunks until enough results
+ * have been collected. If there are more results, the result contains a {@code cursor}. Pass the cursor together with
+ * the same operation to get the next page without resolving the address template again. The cursors expire after
+ * {@code map-reduce.cursor.ttl} milliseconds.
+ * <p/>
+ * The resources are read including runtime attributes unless the operation contains {@code include-runtime=false}.
+ * To save management traffic for repeated polling, the read responses can be cached per address pattern using
+ * {@link #addReadCachePolicy(ModelNode, long, long)}. The policies define separate times to live for reads including
+ * runtime attributes and for config-only reads. Each policy caches up to {@code map-reduce.read-cache.size}
+ * responses per kind of read.
+ * <p/>
+ * Concurrent identical calls of {@link #execute(ModelNode)} share one execution: While an operation is in flight,
+ * the same operation (same address template, filter, conjunct, reduce, aggregate and group by parameters) waits for
+ * the result of the first one instead of executing its own management operations. Operations with {@code limit},
+ * {@code cursor}, {@code timeout} or {@code profile} are never shared. Sharing trades freshness for management
+ * traffic: A caller which joins an execution gets the result of reads which may have started before its call, i.e.
+ * the result can be up to one execution time old. Changing or invalidating the read or resolution cache detaches the
+ * executions in flight, so later calls start a new execution. Set the system property {@code
+ * map-reduce.single-flight} to {@code false} to disable this.
+ * <p/>
+ * Use {@link #subscribe(ModelNode, long, TimeUnit, MapReduceSubscriptionListener)} to re-evaluate an operation
+ * periodically and to get notified about the added, changed and removed results only. The evaluations of all
+ * subscriptions share a scheduler with {@code map-reduce.scheduler.threads} threads.
+ * <p/>
+ * If the operation contains {@code delta=true}, the result contains a short {@code version} id. The handler keeps a
+ * content hash per address for each version (system properties {@code map-reduce.version.size} and {@code
+ * map-reduce.version.ttl}). Pass the id as {@code version} with the next operation to get only the results which
+ * have been added or changed since then. The addresses of the results which are gone are returned as list {@code
+ * removed}.
  *
  * @author Harald Pehl
  */
@@ -58,14 +151,105 @@ public class MapReduceHandler {
 
     public static final String DEFAULT_HOST = "localhost";
     public static final int DEFAULT_PORT = 9990;
+    public static final int DEFAULT_PARALLELISM = 1;
+    public static final int DEFAULT_BATCH_SIZE = 1;
+    public static final int DEFAULT_RESOLUTION_CACHE_SIZE = 0;
+    public static final long DEFAULT_RESOLUTION_CACHE_TTL = 30000;
+    public static final int DEFAULT_CURSOR_CACHE_SIZE = 1000;
+    public static final long DEFAULT_CURSOR_TTL = 300000;
+    public static final int DEFAULT_VERSION_CACHE_SIZE = 1000;
+    public static final long DEFAULT_VERSION_TTL = 300000;
+    public static final int DEFAULT_READ_CACHE_SIZE = 1000;
+    public static final int DEFAULT_SCHEDULER_THREADS = 1;
+
+    private static final AtomicInteger HANDLERS = new AtomicInteger();
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
 
     private final ModelControllerClient client;
+    private final ExecutorService executor;
+    private final OperationExecutor operationExecutor;
+    private final ExpiringCache<ModelNode, List<String>> childNamesCache;
+    private final ExpiringCache<String, Continuation> cursors;
+    private final ExpiringCache<String, Snapshot> versions;
+    private final ReadCache readCache;
+    private final ConcurrentMap<ModelNode, Flight> inFlight; // null if single flight is disabled
+    private final MapReduceMetrics metrics;
+    private final ObjectName metricsName;
+    private ScheduledExecutorService scheduler; // created on demand, guarded by this
 
     public MapReduceHandler() {
+        this(createClient());
+    }
+
+    public MapReduceHandler(final ModelControllerClient client) {
+        this(client, Integer.getInteger("map-reduce.parallelism", DEFAULT_PARALLELISM));
+    }
+
+    public MapReduceHandler(final ModelControllerClient client, final int parallelism) {
+        this(client, parallelism, Integer.getInteger("map-reduce.batch-size", DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Creates a new handler which executes up to {@code parallelism} {@code read-resource} operations concurrently
+     * and packs up to {@code batchSize} {@code read-resource} operations into one {@code composite} operation.
+     *
+     * @param client      the client used to execute the management operations
+     * @param parallelism the maximum number of concurrent operations. If {@code <= 1} the operations are executed
+     *                    sequentially in the calling thread.
+     * @param batchSize   the maximum number of {@code read-resource} operations per {@code composite} operation. If
+     *                    {@code <= 1} no {@code composite} operations are used.
+     */
+    public MapReduceHandler(final ModelControllerClient client, final int parallelism, final int batchSize) {
+        this.client = client;
+        this.executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        this.metrics = new MapReduceMetrics(Boolean.getBoolean("map-reduce.metrics.result-bytes"));
+        this.readCache = new ReadCache(Integer.getInteger("map-reduce.read-cache.size", DEFAULT_READ_CACHE_SIZE));
+        this.operationExecutor = new OperationExecutor(client, executor, parallelism, batchSize, metrics, readCache);
+        this.inFlight = Boolean.parseBoolean(System.getProperty("map-reduce.single-flight", "true"))
+                ? new ConcurrentHashMap<ModelNode, Flight>() : null;
+
+        int cacheSize = Integer.getInteger("map-reduce.resolution-cache.size", DEFAULT_RESOLUTION_CACHE_SIZE);
+        long cacheTtl = Long.getLong("map-reduce.resolution-cache.ttl", DEFAULT_RESOLUTION_CACHE_TTL);
+        this.childNamesCache = cacheSize > 0 ? new ExpiringCache<ModelNode, List<String>>(cacheSize, cacheTtl,
+                TimeUnit.MILLISECONDS) : null;
+        this.cursors = new ExpiringCache<>(Integer.getInteger("map-reduce.cursor.size", DEFAULT_CURSOR_CACHE_SIZE),
+                Long.getLong("map-reduce.cursor.ttl", DEFAULT_CURSOR_TTL), TimeUnit.MILLISECONDS);
+        this.versions = new ExpiringCache<>(Integer.getInteger("map-reduce.version.size", DEFAULT_VERSION_CACHE_SIZE),
+                Long.getLong("map-reduce.version.ttl", DEFAULT_VERSION_TTL), TimeUnit.MILLISECONDS);
+        this.metricsName = registerMetrics(metrics);
+    }
+
+    /**
+     * Registers the metrics at the platform MBean server if the system property {@code map-reduce.jmx} is {@code
+     * true}. The registration holds a strong reference to the metrics, so the handler has to be {@link #shutdown()
+     * shut down} to unregister them.
+     *
+     * @return the object name or {@code null} if the metrics were not registered
+     */
+    private static ObjectName registerMetrics(final MapReduceMetrics metrics) {
+        if (!Boolean.getBoolean("map-reduce.jmx")) {
+            return null;
+        }
+        try {
+            ObjectName name = new ObjectName(
+                    "org.wildfly.mapreduce:type=MapReduceHandler,name=" + HANDLERS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            // metrics are optional
+            return null;
+        }
+    }
+
+    private static ModelControllerClient createClient() {
         try {
             String host = System.getProperty("management.host", DEFAULT_HOST);
             int port = Integer.parseInt(System.getProperty("management.port", String.valueOf(DEFAULT_PORT)));
-            client = ModelControllerClient.Factory.create(InetAddress.getByName(host), port);
+            return ModelControllerClient.Factory.create(InetAddress.getByName(host), port);
         } catch (UnknownHostException e) {
             throw new RuntimeException(e);
         }
@@ -82,159 +266,923 @@ public class MapReduceHandler {
      * @throws java.lang.UnsupportedOperationException for an invalid map / reduce operation
      */
     public ModelNode execute(ModelNode mapReduceOp) {
-        ModelNode mapReduceResult;
+        if (mapReduceOp.hasDefined(TIMEOUT)) {
+            // only the asynchronous execution is able to abandon the management operations in flight
+            return await(executeAsync(mapReduceOp));
+        }
+
+        ModelNode key = inFlight != null ? singleFlightKey(mapReduceOp) : null;
+        if (key == null) {
+            return delta(mapReduceOp, executeSync(mapReduceOp));
+        }
+        Flight flight = new Flight();
+        Flight shared = inFlight.putIfAbsent(key, flight);
+        if (shared != null) {
+            // an identical operation is in flight: wait for its result
+            metrics.mapReduceOperations.incrementAndGet();
+            metrics.coalescedOperations.incrementAndGet();
+            return delta(mapReduceOp, shared.await());
+        }
+        ModelNode mapReduceResult = null;
+        Throwable failure = null;
         try {
-            validate(mapReduceOp);
-            ModelNode filter = mapReduceOp.get(FILTER);
-            boolean conjunct = !mapReduceOp.get(FILTER_CONJUNCT).isDefined() || mapReduceOp.get(FILTER_CONJUNCT).asBoolean();
-            ModelNode attributes = mapReduceOp.get(REDUCE);
+            mapReduceResult = executeSync(mapReduceOp);
+            return delta(mapReduceOp, mapReduceResult);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+            // the waiting callers get their own copy
+            flight.complete(mapReduceResult != null ? mapReduceResult.clone() : ModelNodeUtils.failure(
+                    "Shared execution of the map / reduce operation failed: " + (failure != null ? failure
+                            : "unknown failure")));
+        }
+    }
 
-            // resolve addresses
-            AddressTemplate addressTemplate = new AddressTemplate(mapReduceOp.get(ADDRESS_TEMPLATE));
-            List<Response> responses = new AddressResolver(client).resolve(addressTemplate);
+    /**
+     * Reduces the result to the changes since the version passed with the operation and adds the current version.
+     * The snapshots are kept in {@link #versions}, so the version is just a short id. If the version is unknown (e.g.
+     * because it has expired or was issued by another handler), the complete result is returned together with
+     * {@code delta=false} and the current version, so a polling client just starts over. The result is not modified.
+     * If the operation contains neither {@code delta=true} nor a {@code version}, the result is returned as is.
+     */
+    private ModelNode delta(final ModelNode mapReduceOp, final ModelNode mapReduceResult) {
+        if (!(mapReduceOp.hasDefined(DELTA) && mapReduceOp.get(DELTA).asBoolean()) && !mapReduceOp.hasDefined(
+                VERSION)) {
+            return mapReduceResult;
+        }
+        Snapshot current = Snapshot.of(mapReduceResult);
+        if (current == null) {
+            // failed as a whole: the client keeps its version
+            return mapReduceResult;
+        }
 
-            for (Iterator<Response> iterator = responses.iterator(); iterator.hasNext(); ) {
-                Response response = iterator.next();
-                if (!response.isFailed()) {
-                    ReadResourceOperation readResourceOperation = new ReadResourceOperation(response.address);
-                    try {
-                        ModelNode node = client.execute(readResourceOperation.operation);
+        ModelNode changed = mapReduceResult.get(RESULT);
+        ModelNode removed = null;
+        boolean complete = false;
+        if (mapReduceOp.hasDefined(VERSION)) {
+            Snapshot previous = versions.get(mapReduceOp.get(VERSION).asString());
+            if (previous != null) {
+                changed = current.changedSince(previous);
+                removed = current.removedSince(previous);
+            } else {
+                complete = true;
+            }
+        }
 
-                        if (!ModelNodeUtils.wasSuccessful(node)) {
-                            response.makeFailed(ModelNodeUtils.getFailure(node));
+        ModelNode result = new ModelNode();
+        for (Property property : mapReduceResult.asPropertyList()) {
+            result.get(property.getName()).set(RESULT.equals(property.getName()) ? changed : property.getValue());
+        }
+        if (removed != null) {
+            result.get(REMOVED).set(removed);
+        }
+        if (complete) {
+            result.get(DELTA).set(false);
+        }
+        String version = current.version();
+        versions.put(version, current.withoutResults());
+        result.get(VERSION).set(version);
+        return result;
+    }
 
-                        } else {
-                            // filter
-                            ModelNode result = node.get(RESULT);
-                            if (filter.isDefined() && !match(response, result, filter, conjunct)) {
-                                if (!response.isFailed()) {
-                                    // remove filtered responses
-                                    iterator.remove();
-                                }
-                                continue;
-                            }
+    /**
+     * @return the normalized parameters which determine the result of the operation or {@code null} if the operation
+     * must not share its execution with other operations
+     */
+    private static ModelNode singleFlightKey(final ModelNode mapReduceOp) {
+        if (mapReduceOp.hasDefined(LIMIT) || mapReduceOp.hasDefined(CURSOR) || mapReduceOp.hasDefined(PROFILE)) {
+            return null;
+        }
+        return operationKey(mapReduceOp);
+    }
+
+    /**
+     * @return the normalized parameters which determine the results of the operation. Parameters which only control
+     * how the results are returned (e.g. {@code limit}, {@code cursor} or {@code timeout}) are not part of the key.
+     */
+    private static ModelNode operationKey(final ModelNode mapReduceOp) {
+        ModelNode key = new ModelNode();
+        key.get(OP).set(mapReduceOp.get(OP));
+        key.get(ADDRESS_TEMPLATE).set(mapReduceOp.get(ADDRESS_TEMPLATE));
+        key.get(FILTER).set(mapReduceOp.get(FILTER));
+        key.get(FILTER_CONJUNCT).set(mapReduceOp.hasDefined(FILTER_CONJUNCT) ? mapReduceOp.get(FILTER_CONJUNCT)
+                : new ModelNode(true));
+        key.get(REDUCE).set(mapReduceOp.get(REDUCE));
+        key.get(AGGREGATE).set(mapReduceOp.get(AGGREGATE));
+        key.get(GROUP_BY).set(mapReduceOp.get(GROUP_BY));
+        key.get(INCLUDE_RUNTIME).set(mapReduceOp.hasDefined(INCLUDE_RUNTIME) ? mapReduceOp.get(INCLUDE_RUNTIME)
+                : new ModelNode(true));
+        key.get(SERVER_SIDE_RESOLUTION).set(mapReduceOp.hasDefined(SERVER_SIDE_RESOLUTION) ? mapReduceOp.get(
+                SERVER_SIDE_RESOLUTION) : new ModelNode(false));
+        return key;
+    }
+
+    private ModelNode executeSync(final ModelNode mapReduceOp) {
+        ModelNode mapReduceResult;
+        metrics.mapReduceOperations.incrementAndGet();
+        try {
+            Query query = Query.compile(mapReduceOp);
+            Profile profile = query.createProfile();
+            ResultCollector collector = new ResultCollector(query, metrics, profile);
+            PageCollector page = page(mapReduceOp, collector);
+            mapReduce(query, profile, new BlockingExecution(), countFailures(page != null ? page : collector), null,
+                    page, NOTHING);
+            mapReduceResult = collector.result();
+            continuation(mapReduceOp, mapReduceResult, page);
+
+        } catch (RuntimeException e) {
+            // validation error
+            mapReduceResult = new ModelNode();
+            mapReduceResult.get(OUTCOME).set("failed");
+            mapReduceResult.get(FAILURE_DESCRIPTION).set(e.getMessage());
+        }
+        return mapReduceResult;
+    }
 
-                            // reduce
-                            if (attributes.isDefined()) {
-                                result = reduce(response, result, attributes);
-                                if (result == null) {
-                                    // some reducing attributes were not defined for that resource
-                                    continue;
+    /**
+     * Execute the specified map / reduce operation asynchronously. The management operations are executed using
+     * {@link ModelControllerClient#executeAsync(ModelNode, org.jboss.as.controller.client.OperationMessageHandler)}
+     * and each step (resolution, reading, filtering and reduction) is started from the completion of the previous
+     * one. Thus no thread is blocked while the operation is outstanding. Like for {@link #execute(ModelNode)} at most
+     * {@code parallelism} batches are outstanding at the same time.
+     * <p/>
+     * The result is the same as for {@link #execute(ModelNode)}. Cancelling the returned future cancels the
+     * management operations in flight and skips the remaining ones.
+     *
+     * @param mapReduceOp a model node describing a valid map / reduce operation.
+     *
+     * @return a future for the model node containing the list of results
+     */
+    public AsyncFuture<ModelNode> executeAsync(final ModelNode mapReduceOp) {
+        final MapReduceFuture future = new MapReduceFuture();
+        metrics.mapReduceOperations.incrementAndGet();
+        try {
+            final Query query = Query.compile(mapReduceOp);
+            final Profile profile = query.createProfile();
+            final ResultCollector collector = new ResultCollector(query, metrics, profile);
+            final PageCollector page = page(mapReduceOp, collector);
+            final DeadlineCollector deadline = new DeadlineCollector(page != null ? page : collector,
+                    mapReduceOp.get(ADDRESS_TEMPLATE), metrics);
+            final ScheduledFuture<?> timeout = scheduleTimeout(mapReduceOp, deadline, future.cancellation,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            if (page != null) {
+                                page.expire();
+                            }
+                            ModelNode result = collector.result();
+                            result.get(PARTIAL).set(true);
+                            continuation(mapReduceOp, result, page);
+                            future.complete(delta(mapReduceOp, result));
+                        }
+                    });
+            // the deadline collector counts the failures including the ones reported when it expires
+            mapReduce(query, profile, new AsyncExecution(future.cancellation), deadline, deadline, page,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            if (deadline.finish()) {
+                                if (timeout != null) {
+                                    timeout.cancel(false);
                                 }
+                                ModelNode result = collector.result();
+                                continuation(mapReduceOp, result, page);
+                                future.complete(delta(mapReduceOp, result));
                             }
-
-                            // collect
-                            response.useResult(result);
                         }
-                    } catch (IOException e) {
-                        response.makeFailed(e.getMessage());
+                    });
+
+        } catch (RuntimeException e) {
+            // validation error
+            future.complete(ModelNodeUtils.failure(e.getMessage()));
+        }
+        return future;
+    }
+
+    /**
+     * Execute several map / reduce operations as one combined plan: The address templates of all operations are
+     * resolved together, so the {@code read-children-names} operations of shared prefixes are executed only once.
+     * Then each distinct resource is read only once, no matter how many operations need it, and the resource is
+     * passed to the filter and reduce attributes of each operation.
+     * <p/>
+     * A resource is read completely if one of the operations needs the complete resource. Otherwise the union of the
+     * attributes needed by the operations is read. The filters are always evaluated after the resources have been
+     * read. The parameters {@code limit}, {@code cursor} and {@code timeout} are not supported in batches, {@code
+     * server-side-resolution} and {@code profile} are ignored.
+     *
+     * @param mapReduceOps a list of model nodes describing valid map / reduce operations.
+     *
+     * @return one model node per operation in the order of the operations. The model nodes are the same as returned by
+     * {@link #execute(ModelNode)}.
+     */
+    public List<ModelNode> executeBatch(List<ModelNode> mapReduceOps) {
+        ModelNode[] results = new ModelNode[mapReduceOps.size()];
+        List<BatchQuery> queries = new ArrayList<>(mapReduceOps.size());
+        List<AddressTemplate> templates = new ArrayList<>(mapReduceOps.size());
+        for (int i = 0; i < mapReduceOps.size(); i++) {
+            ModelNode mapReduceOp = mapReduceOps.get(i);
+            metrics.mapReduceOperations.incrementAndGet();
+            try {
+                Query query = Query.compile(mapReduceOp);
+                if (mapReduceOp.hasDefined(LIMIT) || mapReduceOp.hasDefined(CURSOR) || mapReduceOp.hasDefined(
+                        TIMEOUT)) {
+                    throw new IllegalArgumentException("Limit, cursor and timeout are not supported in batches");
+                }
+                queries.add(new BatchQuery(i, query));
+                templates.add(query.addressTemplate);
+            } catch (RuntimeException e) {
+                // validation error
+                results[i] = ModelNodeUtils.failure(e.getMessage());
+            }
+        }
+
+        // resolve all templates at once
+        List<List<Response>> resolved = new AddressResolver(operationExecutor, childNamesCache, metrics,
+                Profile.DISABLED).resolve(templates);
+        long readStart = System.nanoTime();
+
+        // one read per distinct address and include-runtime value
+        Map<ModelNode, SharedRead> reads = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            BatchQuery batchQuery = queries.get(i);
+            Query query = batchQuery.query;
+            List<Response> responses = resolved.get(i);
+            for (int j = 0; j < responses.size(); j++) {
+                Response response = responses.get(j);
+                if (response.isFailed()) {
+                    // addresses which could not be resolved
+                    batchQuery.counting.collect(j, response);
+                } else if (query.projection != null) {
+                    ModelNode address = response.address();
+                    ModelNode key = SharedRead.key(address, query.includeRuntime);
+                    SharedRead read = reads.get(key);
+                    if (read == null) {
+                        read = new SharedRead(address, query.includeRuntime);
+                        reads.put(key, read);
                     }
+                    read.add(query.projection);
                 }
             }
+        }
+        readShared(new ArrayList<>(reads.values()));
 
-            // build result
-            ModelNode composite = new ModelNode().setEmptyList();
-            for (Response response : responses) {
-                composite.add(response.asModelNode());
+        // fan out the resources to the queries
+        for (int i = 0; i < queries.size(); i++) {
+            BatchQuery batchQuery = queries.get(i);
+            Query query = batchQuery.query;
+            List<Response> responses = resolved.get(i);
+            for (int j = 0; j < responses.size(); j++) {
+                Response response = responses.get(j);
+                if (!response.isFailed()) {
+                    ModelNode node;
+                    if (query.projection == null) {
+                        node = emptyRead();
+                    } else {
+                        SharedRead read = reads.get(SharedRead.key(response.address(), query.includeRuntime));
+                        // the filter and reduce attributes must not see the changes made by other queries
+                        node = read.consumers > 1 ? read.node.clone() : read.node;
+                    }
+                    if (process(response, node, query, Profile.DISABLED)) {
+                        batchQuery.counting.collect(j, response);
+                    }
+                }
+            }
+            results[batchQuery.index] = delta(query.operation, batchQuery.collector.result());
+        }
+        metrics.read.recordSince(readStart);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Executes the shared reads and stores the outcome in {@link SharedRead#node}. If a {@code composite} projection
+     * fails, the resource is read using a plain {@code read-resource} operation.
+     */
+    private void readShared(final List<SharedRead> reads) {
+        final List<ModelNode> operations = new ArrayList<>(reads.size());
+        final List<ReadResourceOperation> readOperations = new ArrayList<>(reads.size());
+        for (SharedRead read : reads) {
+            ReadResourceOperation operation = read.attributes == null ? new ReadResourceOperation(
+                    read.address, read.includeRuntime) : new ReadResourceOperation(read.address, read.attributes,
+                    read.includeRuntime);
+            readOperations.add(operation);
+            operations.add(operation.operation);
+        }
+        operationExecutor.execute(operations, new OperationExecutor.Callback() {
+            @Override
+            public void onResponse(final int index, final ModelNode response, final long nanos) {
+                ReadResourceOperation read = readOperations.get(index);
+                ModelNode node = read.toResourceResponse(response);
+                SharedRead sharedRead = reads.get(index);
+                if (read.isComposite() && !ModelNodeUtils.wasSuccessful(node)) {
+                    node = operationExecutor.execute(singletonList(new ReadResourceOperation(read.address,
+                            sharedRead.includeRuntime).operation)).get(0);
+                }
+                sharedRead.node = node;
+            }
+        });
+    }
+
+    /**
+     * Execute the specified map / reduce operation and pass each result to the listener as soon as it has been read,
+     * filtered and reduced. The results are passed in the order they're completed, which is not necessarily the order
+     * of the resolved addresses. This method returns after {@link MapReduceListener#onComplete(ModelNode)} has been
+     * called.
+     * <p/>
+     * If the operation contains aggregate functions or a group by parameter, no single results are passed to the
+     * listener. Instead the aggregate is part of the outcome passed to {@link MapReduceListener#onComplete(ModelNode)}.
+     * The parameters {@code delta} and {@code version} are ignored.
+     *
+     * @param mapReduceOp a model node describing a valid map / reduce operation.
+     * @param listener    the listener for the results and the overall outcome
+     */
+    public void execute(ModelNode mapReduceOp, final MapReduceListener listener) {
+        final int[] counts = new int[2]; // successful, failed
+        ModelNode outcome = new ModelNode();
+        metrics.mapReduceOperations.incrementAndGet();
+        try {
+            final Query query = Query.compile(mapReduceOp);
+            final Profile profile = query.createProfile();
+            Collector collector = new Collector() {
+                @Override
+                public void collect(final int index, final Response response) {
+                    synchronized (listener) {
+                        counts[response.isFailed() ? 1 : 0]++;
+                        if (!query.aggregate(response)) {
+                            ModelNode result = response.asModelNode();
+                            metrics.countResult(result);
+                            listener.onResult(result);
+                        }
+                    }
+                }
+            };
+            PageCollector page = page(mapReduceOp, collector);
+            boolean partial = false;
+            if (mapReduceOp.hasDefined(TIMEOUT)) {
+                partial = mapReduceWithTimeout(query, profile, collector, page);
+            } else {
+                mapReduce(query, profile, new BlockingExecution(), countFailures(page != null ? page : collector),
+                        null, page, NOTHING);
+            }
+            synchronized (listener) {
+                outcome.get(OUTCOME).set(counts[1] > 0 && counts[0] == 0 ? FAILED : SUCCESS);
+                if (partial) {
+                    outcome.get(PARTIAL).set(true);
+                }
+                continuation(mapReduceOp, outcome, page);
+                if (query.isAggregate()) {
+                    query.aggregateResult(outcome, counts[1]);
+                    metrics.countResult(outcome.get(RESULT));
+                }
+                if (profile.isEnabled()) {
+                    outcome.get(PROFILE).set(profile.asModelNode());
+                }
             }
-            mapReduceResult = new ModelNode();
-            mapReduceResult.get(OUTCOME).set(allFailed(responses) ? FAILED : SUCCESS);
-            mapReduceResult.get(RESULT).set(composite);
 
         } catch (RuntimeException e) {
             // validation error
-            mapReduceResult = new ModelNode();
-            mapReduceResult.get(OUTCOME).set("failed");
-            mapReduceResult.get(FAILURE_DESCRIPTION).set(e.getMessage());
+            outcome.get(OUTCOME).set(FAILED);
+            outcome.get(FAILURE_DESCRIPTION).set(e.getMessage());
         }
-        return mapReduceResult;
+        listener.onComplete(outcome);
     }
 
-    private void validate(final ModelNode operation) {
-        // address
-        if (!operation.get(ADDRESS_TEMPLATE).isDefined()) {
-            throw new IllegalArgumentException("No address given");
-        }
-        ModelNode address = operation.get(ADDRESS_TEMPLATE);
-        if (address.getType() != ModelType.LIST) {
+    /**
+     * Registers a continuous query: The map / reduce operation is evaluated right away and then again {@code
+     * interval} after the previous evaluation has completed. The results of each evaluation are compared with the
+     * results of the previous evaluation using a content hash per address. The listener is only notified if results
+     * have been added, changed or removed.
+     * <p/>
+     * The evaluations are executed asynchronously (see {@link #executeAsync(ModelNode)}) and share the scheduler of
+     * this handler, so subscriptions don't occupy a thread of their own. Combine subscriptions with a {@linkplain
+     * #addReadCachePolicy(ModelNode, long, long) read cache policy} to reduce the management traffic even further.
+     *
+     * @param mapReduceOp a model node describing a valid map / reduce operation without {@code aggregate}, {@code
+     *                    group-by}, {@code limit} and {@code cursor}.
+     * @param interval    the delay between the end of one evaluation and the start of the next one
+     * @param unit        the unit of the interval
+     * @param listener    the listener for the changes
+     *
+     * @return the subscription which is used to cancel the continuous query
+     *
+     * @throws java.lang.IllegalArgumentException      for an invalid map / reduce operation or interval
+     * @throws java.lang.UnsupportedOperationException for an invalid map / reduce operation
+     */
+    public MapReduceSubscription subscribe(final ModelNode mapReduceOp, final long interval, final TimeUnit unit,
+            final MapReduceSubscriptionListener listener) {
+        Query.validate(mapReduceOp);
+        if (mapReduceOp.get(AGGREGATE).isDefined() || mapReduceOp.get(GROUP_BY).isDefined() || mapReduceOp
+                .hasDefined(LIMIT) || mapReduceOp.hasDefined(CURSOR)) {
             throw new IllegalArgumentException(
-                    "Address must be of type " + ModelType.LIST + ", but was " + address.getType());
+                    "Aggregate, group by, limit and cursor are not supported by continuous queries");
         }
-        for (Property path : address.asPropertyList()) {
-            if (WILDCARD.equals(path.getName())) {
-                throw new IllegalArgumentException("Illegal usage of wildcards in " + ModelNodeUtils
-                        .formatAddress(address) + " for segment " + path.getName() + "=" + path.getValue().asString());
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be greater than 0");
+        }
+        ContinuousQuery query = new ContinuousQuery(this, scheduler(), mapReduceOp.clone(), interval, unit,
+                listener);
+        query.start();
+        return query;
+    }
+
+    /**
+     * Blocks until the result of the future is available.
+     */
+    private ModelNode await(final AsyncFuture<ModelNode> future) {
+        try {
+            return future.getUninterruptibly();
+        } catch (ExecutionException | CancellationException e) {
+            // not thrown by our future
+            return ModelNodeUtils.failure(String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Executes the operation asynchronously and blocks until it's complete or until its timeout has expired.
+     *
+     * @return {@code true} if the timeout has expired and the collected responses are partial
+     */
+    private boolean mapReduceWithTimeout(final Query query, final Profile profile, final Collector collector,
+            final PageCollector page) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Cancellation cancellation = new Cancellation();
+        final DeadlineCollector deadline = new DeadlineCollector(page != null ? page : collector,
+                query.operation.get(ADDRESS_TEMPLATE), metrics);
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                if (page != null) {
+                    page.expire();
+                }
+                latch.countDown();
+            }
+        };
+        final ScheduledFuture<?> timeout = scheduleTimeout(query.operation, deadline, cancellation, release);
+        mapReduce(query, profile, new AsyncExecution(cancellation), deadline, deadline, page, new Runnable() {
+            @Override
+            public void run() {
+                if (deadline.finish()) {
+                    timeout.cancel(false);
+                    latch.countDown();
+                }
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (deadline.expire("Interrupted while waiting for the result")) {
+                cancellation.cancel();
+                if (page != null) {
+                    page.expire();
+                }
+            }
+        }
+        return deadline.isExpired();
+    }
+
+    /**
+     * Schedules the expiry of the timeout if the operation contains one. Once the timeout has expired, the
+     * outstanding responses are reported as failed, the management operations in flight are cancelled and {@code
+     * expired} is run. Nothing happens if the operation has finished before.
+     *
+     * @return the scheduled expiry or {@code null} if the operation has no timeout
+     */
+    private ScheduledFuture<?> scheduleTimeout(final ModelNode mapReduceOp, final DeadlineCollector deadline,
+            final Cancellation cancellation, final Runnable expired) {
+        if (!mapReduceOp.hasDefined(TIMEOUT)) {
+            return null;
+        }
+        final long timeout = mapReduceOp.get(TIMEOUT).asLong();
+        return scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (deadline.expire("Timeout: Operation not completed within " + timeout + " ms")) {
+                    cancellation.cancel();
+                    expired.run();
+                }
             }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newScheduledThreadPool(
+                    Integer.getInteger("map-reduce.scheduler.threads", DEFAULT_SCHEDULER_THREADS),
+                    new ThreadFactory() {
+                        private final AtomicInteger threads = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "map-reduce-scheduler-" + threads.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
         }
+        return scheduler;
+    }
 
-        // operation
-        if (!operation.get(OP).isDefined()) {
-            throw new IllegalArgumentException("No operation given");
+    /**
+     * Resolves, reads, filters and reduces the resources and passes each response to the collector. Filtered
+     * responses are not collected. The collector is called as soon as a response is complete, possibly from different
+     * threads. {@code done} is run after the last response has been collected.
+     * <p/>
+     * Each step is started from the completion of the previous one. Using a {@link BlockingExecution}, each step has
+     * completed when it returns, so the operation has completed when this method returns. Using an {@link
+     * AsyncExecution}, no thread is blocked while the management operations are outstanding.
+     *
+     * @param collector collects the responses and counts the failed ones in the metrics
+     * @param deadline  keeps track of the responses being read or {@code null} if the operation has no deadline
+     * @param page      limits the results to one page or {@code null} if the operation has no limit
+     */
+    private void mapReduce(final Query query, final Profile profile, final Execution execution,
+            final Collector collector, final DeadlineCollector deadline, final PageCollector page,
+            final Runnable done) {
+        final Reader reader = new Reader() {
+            @Override
+            public void read(final List<Response> responses, final int offset, final Runnable done) {
+                if (deadline != null) {
+                    deadline.reading(new ArrayList<>(responses), offset);
+                }
+                Runnable read = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deadline != null) {
+                            deadline.reading(responses, offset);
+                        }
+
+                        // addresses which could not be resolved
+                        for (int i = 0; i < responses.size(); i++) {
+                            if (responses.get(i).isFailed()) {
+                                collector.collect(offset + i, responses.get(i));
+                            }
+                        }
+                        readResources(responses, query.projection, query.includeRuntime, profile, execution,
+                                new ReadCallback() {
+                                    @Override
+                                    public void onRead(final int index, final Response response, final ModelNode node) {
+                                        if (process(response, node, query, profile)) {
+                                            collector.collect(offset + index, response);
+                                        } else if (deadline != null) {
+                                            deadline.filtered(response);
+                                        }
+                                    }
+                                }, done);
+                    }
+                };
+                // read filter attributes first, if the filter is the only way to reduce the payload
+                if (query.preFilter) {
+                    preFilter(responses, query, profile, execution, read);
+                } else {
+                    read.run();
+                }
+            }
+        };
+        final AddressResolver.Callback resolved = new AddressResolver.Callback() {
+            @Override
+            public void onResolved(final List<Response> responses) {
+                final long readStart = System.nanoTime();
+                Runnable read = new Runnable() {
+                    @Override
+                    public void run() {
+                        long readNanos = System.nanoTime() - readStart;
+                        metrics.read.record(readNanos);
+                        profile.read(readNanos);
+                        done.run();
+                    }
+                };
+                if (page != null) {
+                    readPages(responses, 0, page, execution, reader, read);
+                } else {
+                    reader.read(responses, 0, read);
+                }
+            }
+        };
+
+        if (page != null && page.continuation() != null) {
+            // continue the previous page without resolving the addresses again
+            resolved.onResolved(page.continuation());
+
+        } else if (page == null && query.serverSideResolution && !query.addressTemplate.isResolved()) {
+            // resolve and read on the server in one go
+            final ModelNode address = query.addressTemplate.address();
+            final ModelNode[] wildcardResponse = new ModelNode[1];
+            execution.execute(singletonList(new ReadResourceOperation(address, query.includeRuntime).operation),
+                    new OperationExecutor.Callback() {
+                        @Override
+                        public void onResponse(final int index, final ModelNode response, final long nanos) {
+                            wildcardResponse[0] = response;
+                            profile.readResource(Response.prepare(address), nanos);
+                        }
+                    }, new Runnable() {
+                        @Override
+                        public void run() {
+                            List<ModelNode> entries = wildcardEntries(wildcardResponse[0]);
+                            if (entries != null) {
+                                processWildcard(entries, query, profile, collector);
+                                done.run();
+                            } else {
+                                // the endpoint doesn't support wildcard reads for this template
+                                execution.resolve(query.addressTemplate, profile, resolved);
+                            }
+                        }
+                    });
+        } else {
+            execution.resolve(query.addressTemplate, profile, resolved);
         }
-        String op = operation.get(OP).asString();
-        if (!MAP_REDUCE_OP.equals(op)) {
-            throw new UnsupportedOperationException("Unsupported operation " + op);
+    }
+
+    /**
+     * Reads the responses chunk by chunk starting at {@code from} until the page is full. {@code done} is run after
+     * the last chunk has been read.
+     */
+    private void readPages(final List<Response> responses, final int from, final PageCollector page,
+            final Execution execution, final Reader reader, final Runnable done) {
+        if (from >= responses.size() || page.isFull() || execution.isCancelled()) {
+            done.run();
+            return;
         }
+        final List<Response> chunk = page.nextChunk(responses, from);
+        reader.read(new ArrayList<>(chunk), from, new Runnable() {
+            @Override
+            public void run() {
+                page.flush();
+                readPages(responses, from + chunk.size(), page, execution, reader, done);
+            }
+        });
+    }
 
-        // Even if you filter only one attribute it has to be inside a list
-        ModelNode filter = operation.get(FILTER);
-        if (filter.isDefined()) {
-            if (filter.getType() != ModelType.LIST) {
-                throw new IllegalArgumentException(
-                        "Filter must be of type " + ModelType.LIST + ", but was " + filter.getType());
+    /**
+     * @return a page collector if the operation contains a limit or a cursor, {@code null} otherwise
+     *
+     * @throws IllegalArgumentException if the cursor is unknown, has expired or belongs to another operation
+     */
+    private PageCollector page(final ModelNode mapReduceOp, final Collector collector) {
+        if (!mapReduceOp.hasDefined(LIMIT) && !mapReduceOp.hasDefined(CURSOR)) {
+            return null;
+        }
+        List<Response> continuation = null;
+        if (mapReduceOp.hasDefined(CURSOR)) {
+            String cursor = mapReduceOp.get(CURSOR).asString();
+            Continuation previous = cursors.get(cursor);
+            if (previous == null) {
+                throw new IllegalArgumentException("Unknown or expired cursor " + cursor);
+            }
+            if (!previous.operation.equals(operationKey(mapReduceOp))) {
+                throw new IllegalArgumentException("Cursor " + cursor + " does not belong to this operation");
             }
+            continuation = PageCollector.unread(previous.responses);
+        }
+        int limit = mapReduceOp.hasDefined(LIMIT) ? mapReduceOp.get(LIMIT).asInt() : Integer.MAX_VALUE;
+        return new PageCollector(collector, limit, continuation);
+    }
+
+    /**
+     * Adds a cursor to the result if there are responses left after the page. Only the addresses of the remaining
+     * responses are kept, not their payload.
+     */
+    private void continuation(final ModelNode mapReduceOp, final ModelNode result, final PageCollector page) {
+        if (page != null && !page.remaining().isEmpty()) {
+            String cursor = UUID.randomUUID().toString();
+            cursors.put(cursor, new Continuation(operationKey(mapReduceOp), PageCollector.unread(page.remaining())));
+            result.get(CURSOR).set(cursor);
         }
+    }
 
-        ModelNode attributes = operation.get(REDUCE);
-        if (attributes.isDefined()) {
-            if (attributes.getType() != ModelType.LIST) {
-                throw new IllegalArgumentException(
-                        "Attributes must be of type " + ModelType.LIST + ", but was " + attributes.getType());
+    private Collector countFailures(final Collector collector) {
+        return new Collector() {
+            @Override
+            public void collect(final int index, final Response response) {
+                if (response.isFailed()) {
+                    metrics.failed.incrementAndGet();
+                }
+                collector.collect(index, response);
             }
-            if (attributes.asList().isEmpty()) {
-                throw new IllegalArgumentException("Attributes must not be empty");
+        };
+    }
+
+    private void processWildcard(final List<ModelNode> entries, final Query query, final Profile profile,
+            final Collector collector) {
+        for (int i = 0; i < entries.size(); i++) {
+            Response response = Response.prepare(entries.get(i).get(ADDRESS));
+            if (process(response, entries.get(i), query, profile)) {
+                collector.collect(i, response);
             }
         }
     }
 
-    private boolean match(final Response response, final ModelNode result, final ModelNode filter,
-            final boolean conjunct) {
-        List<Property> filterProperties = filter.asPropertyList();
-        List<Boolean> matches = new ArrayList<>(filterProperties.size());
+    /**
+     * Applies the filter and reducing attributes to the {@code read-resource} result and updates the response.
+     *
+     * @return {@code false} if the response was filtered out, {@code true} otherwise
+     */
+    private boolean process(final Response response, final ModelNode node, final Query query,
+            final Profile profile) {
+        if (!ModelNodeUtils.wasSuccessful(node)) {
+            response.makeFailed(ModelNodeUtils.getFailure(node));
+            return true;
+        }
 
-        for (Property property : filterProperties) {
-            String filterName = property.getName();
-            ModelNode filterValue = property.getValue();
+        // filter
+        ModelNode result = node.get(RESULT);
+        if (query.filter != null) {
+            long start = System.nanoTime();
+            boolean matches = query.filter.matches(response, result);
+            long nanos = System.nanoTime() - start;
+            metrics.filter.record(nanos);
+            profile.filter(nanos);
+            if (!matches) {
+                if (!response.isFailed()) {
+                    metrics.filteredOut.incrementAndGet();
+                }
+                // keep failed responses only
+                return response.isFailed();
+            }
+        }
 
-            if (result.get(filterName).isDefined()) {
-                matches.add(result.get(filterName).equals(filterValue));
-            } else {
-                response.makeFailed("Filter attribute \"" + filterName + "\" not defined for this resource");
-                return false;
+        // reduce
+        if (query.attributes.isDefined()) {
+            long start = System.nanoTime();
+            result = reduce(response, result, query.attributes);
+            long nanos = System.nanoTime() - start;
+            metrics.reduce.record(nanos);
+            profile.reduce(nanos);
+            if (result == null) {
+                // some reducing attributes were not defined for that resource
+                return true;
             }
         }
 
-        if (conjunct) {
-            // all matches must be true
-            for (boolean match : matches) {
-                if (!match) {
-                    return false;
+        // collect
+        response.useResult(result);
+        return true;
+    }
+
+    /**
+     * @return the {@code (address, outcome, result)} entries of a wildcard {@code read-resource} response or {@code
+     * null} if the response is no valid wildcard response
+     */
+    private List<ModelNode> wildcardEntries(final ModelNode response) {
+        if (ModelNodeUtils.wasSuccessful(response) && response.get(RESULT).getType() == ModelType.LIST) {
+            List<ModelNode> entries = response.get(RESULT).asList();
+            for (ModelNode entry : entries) {
+                if (!entry.hasDefined(ADDRESS)) {
+                    return null;
                 }
             }
-            return true;
+            return entries;
+        }
+        return null;
+    }
 
-        } else {
-            // at least one match must be true
-            for (Boolean match : matches) {
-                if (match) {
-                    return true;
+    /**
+     * Reads only the filter attributes of the specified responses and removes the responses which don't match the
+     * filter. Responses whose filter attributes cannot be read are marked as failed. {@code done} is run after the
+     * mismatches have been removed.
+     */
+    private void preFilter(final List<Response> responses, final Query query, final Profile profile,
+            final Execution execution, final Runnable done) {
+        final boolean[] matches = new boolean[responses.size()];
+        readResources(responses, query.filter.attributeNames(), query.includeRuntime, profile, execution,
+                new ReadCallback() {
+                    @Override
+                    public void onRead(final int index, final Response response, final ModelNode node) {
+                        if (!ModelNodeUtils.wasSuccessful(node)) {
+                            response.makeFailed(ModelNodeUtils.getFailure(node));
+                        } else {
+                            long start = System.nanoTime();
+                            matches[index] = query.filter.matches(response, node.get(RESULT));
+                            long nanos = System.nanoTime() - start;
+                            metrics.filter.record(nanos);
+                            profile.filter(nanos);
+                        }
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        removeMismatches(responses, matches);
+                        done.run();
+                    }
+                });
+    }
+
+    private void removeMismatches(final List<Response> responses, final boolean[] matches) {
+        int index = 0;
+        for (Iterator<Response> iterator = responses.iterator(); iterator.hasNext(); index++) {
+            Response response = iterator.next();
+            if (!response.isFailed() && !matches[index]) {
+                iterator.remove();
+                metrics.filteredOut.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Executes a {@code read-resource} operation for each response which is not already failed and passes the
+     * outcome to the callback together with the index of the response. {@code done} is run after the callback has
+     * been called for the last response.
+     * <p/>
+     * If {@code attributes} are given, only these attributes are read. If a {@code composite} projection fails for
+     * some resources (e.g. because an attribute is unknown), these resources are read using a plain {@code
+     * read-resource} operation, so that the failure is reported the same way as without projection. {@code
+     * includeRuntime} applies to plain reads as well as to projections. If {@code attributes} is {@code null}, nothing
+     * is read and each response is passed together with an empty result.
+     * <p/>
+     * Each read is counted in the profile together with its latency.
+     */
+    private void readResources(final List<Response> responses, final Set<String> attributes,
+            final boolean includeRuntime, final Profile profile, final Execution execution,
+            final ReadCallback callback, final Runnable done) {
+        if (attributes == null) {
+            resolveOnly(responses, callback);
+            done.run();
+            return;
+        }
+        final List<Integer> indices = new ArrayList<>(responses.size());
+        final List<ReadResourceOperation> reads = new ArrayList<>(responses.size());
+        List<ModelNode> operations = prepareReads(responses, attributes, includeRuntime, indices, reads);
+
+        // the execution itself counts as well, so a blocking execution runs done in the calling thread
+        final AtomicInteger remaining = new AtomicInteger(operations.size() + 1);
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                if (remaining.decrementAndGet() == 0) {
+                    done.run();
                 }
             }
-            return false;
+        };
+        execution.execute(operations, new OperationExecutor.Callback() {
+            @Override
+            public void onResponse(final int index, final ModelNode response, final long nanos) {
+                final ReadResourceOperation read = reads.get(index);
+                final int responseIndex = indices.get(index);
+                ModelNode node = read.toResourceResponse(response);
+                profile.readResource(responses.get(responseIndex), nanos);
+                if (read.isComposite() && !ModelNodeUtils.wasSuccessful(node)) {
+                    execution.execute(singletonList(new ReadResourceOperation(read.address,
+                            includeRuntime).operation), new OperationExecutor.Callback() {
+                                @Override
+                                public void onResponse(final int ignore, final ModelNode fallback, final long nanos) {
+                                    profile.readResource(responses.get(responseIndex), nanos);
+                                    callback.onRead(responseIndex, responses.get(responseIndex), fallback);
+                                }
+                            }, countDown);
+                } else {
+                    callback.onRead(responseIndex, responses.get(responseIndex), node);
+                    countDown.run();
+                }
+            }
+        }, countDown);
+    }
+
+    /**
+     * Passes each response which is not already failed together with an empty result to the callback.
+     */
+    private void resolveOnly(final List<Response> responses, final ReadCallback callback) {
+        for (int i = 0; i < responses.size(); i++) {
+            if (!responses.get(i).isFailed()) {
+                callback.onRead(i, responses.get(i), emptyRead());
+            }
+        }
+    }
+
+    /**
+     * @return a successful {@code read-resource} response with an empty result
+     */
+    private static ModelNode emptyRead() {
+        ModelNode node = new ModelNode();
+        node.get(OUTCOME).set(SUCCESS);
+        node.get(RESULT).setEmptyObject();
+        return node;
+    }
+
+    /**
+     * Creates the read operations for the responses which are not already failed.
+     *
+     * @return the management operations of the reads
+     */
+    private List<ModelNode> prepareReads(final List<Response> responses, final Set<String> attributes,
+            final boolean includeRuntime, final List<Integer> indices, final List<ReadResourceOperation> reads) {
+        List<ModelNode> operations = new ArrayList<>(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            Response response = responses.get(i);
+            if (!response.isFailed()) {
+                ReadResourceOperation read = attributes.isEmpty() ? new ReadResourceOperation(
+                        response.address(), includeRuntime) : new ReadResourceOperation(response.address(),
+                        attributes, includeRuntime);
+                indices.add(i);
+                reads.add(read);
+                operations.add(read.operation);
+            }
         }
+        return operations;
     }
 
-    private ModelNode reduce(final Response response, final ModelNode result, final ModelNode attributes) {
+    static ModelNode reduce(final Response response, final ModelNode result, final ModelNode attributes) {
         // make sure all attributes are defined
         List<String> names = new ArrayList<>();
         List<String> undefined = new ArrayList<>();
@@ -263,21 +1211,311 @@ public class MapReduceHandler {
         }
     }
 
-    private boolean allFailed(final List<Response> responses) {
-        int count = 0;
-        for (Response response : responses) {
-            if (response.isFailed()) {
-                count++;
-            }
+    /**
+     * Removes all cached child names. Use this method if the topology of the domain has changed.
+     */
+    public void invalidateResolutionCache() {
+        if (childNamesCache != null) {
+            childNamesCache.invalidate();
         }
-        return !responses.isEmpty() && count == responses.size();
+        detachFlights();
+    }
+
+    /**
+     * @return the statistics ({@code size}, {@code hits}, {@code misses} and {@code evictions}) of the resolution
+     * cache or an undefined model node if the cache is disabled
+     */
+    public ModelNode resolutionCacheStatistics() {
+        return childNamesCache != null ? childNamesCache.statistics() : new ModelNode();
+    }
+
+    /**
+     * Caches the responses of the reads whose address matches the pattern. The pattern is an address like {@code
+     * [("host" => "*"), ("server-config" => "*")]} with optional wildcards as names. It only matches addresses with
+     * the same number of segments. If several policies match an address, the policy which was added first applies.
+     *
+     * @param addressPattern    the address pattern
+     * @param includeRuntimeTtl the time to live in milliseconds of reads including runtime attributes (reads of
+     *                          single attributes count as such). If {@code <= 0} these reads are not cached.
+     * @param configTtl         the time to live in milliseconds of config-only reads ({@code include-runtime=false}).
+     *                          If {@code <= 0} these reads are not cached.
+     */
+    public void addReadCachePolicy(final ModelNode addressPattern, final long includeRuntimeTtl,
+            final long configTtl) {
+        if (addressPattern.isDefined() && addressPattern.getType() != ModelType.LIST) {
+            throw new IllegalArgumentException(
+                    "Address pattern must be of type " + ModelType.LIST + ", but was " + addressPattern.getType());
+        }
+        readCache.addPolicy(addressPattern.isDefined() ? addressPattern : new ModelNode().setEmptyList(),
+                includeRuntimeTtl, configTtl);
+        detachFlights();
+    }
+
+    /**
+     * Removes all cached read responses. Use this method if resources have been changed and the changes must be
+     * visible before the cached responses expire.
+     */
+    public void invalidateReadCache() {
+        readCache.invalidate();
+        detachFlights();
+    }
+
+    /**
+     * Makes later calls start a new execution instead of sharing the executions in flight, which might use an
+     * outdated cache. The callers already waiting still get the result of their execution.
+     */
+    private void detachFlights() {
+        if (inFlight != null) {
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * @return the statistics ({@code size}, {@code hits}, {@code misses} and {@code evictions}) of the read cache
+     * summed up over all policies
+     */
+    public ModelNode readCacheStatistics() {
+        return readCache.statistics();
+    }
+
+    /**
+     * @return the metrics of this handler. If the system property {@code map-reduce.jmx} is {@code true}, they're
+     * also registered at the platform MBean server.
+     */
+    public MapReduceMetricsMXBean metrics() {
+        return metrics;
     }
 
     public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // already unregistered
+            }
+        }
         try {
             client.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+
+    private interface ReadCallback {
+
+        void onRead(int index, Response response, ModelNode node);
+    }
+
+
+    /**
+     * Reads, filters and reduces a list of resolved responses and collects them using {@code offset + index}.
+     */
+    private interface Reader {
+
+        void read(List<Response> responses, int offset, Runnable done);
+    }
+
+
+    /**
+     * Executes the management operations of one map / reduce operation either blocking or asynchronously. The steps
+     * of {@link #mapReduce(Query, Profile, Execution, Collector, DeadlineCollector, PageCollector, Runnable)} are
+     * started from the completion of the previous step, so both kinds of execution share the same steps.
+     */
+    private interface Execution {
+
+        /**
+         * Executes the operations and passes each response to the callback. {@code done} is run after the last
+         * response has been passed.
+         */
+        void execute(List<ModelNode> operations, OperationExecutor.Callback callback, Runnable done);
+
+        /**
+         * Resolves the address template and passes the resolved responses to the callback.
+         */
+        void resolve(AddressTemplate addressTemplate, Profile profile, AddressResolver.Callback callback);
+
+        boolean isCancelled();
+    }
+
+
+    /**
+     * Executes the management operations using {@link ModelControllerClient#execute(ModelNode)}. The callbacks and
+     * {@code done} have been run when the methods return.
+     */
+    private final class BlockingExecution implements Execution {
+
+        @Override
+        public void execute(final List<ModelNode> operations, final OperationExecutor.Callback callback,
+                final Runnable done) {
+            operationExecutor.execute(operations, callback);
+            done.run();
+        }
+
+        @Override
+        public void resolve(final AddressTemplate addressTemplate, final Profile profile,
+                final AddressResolver.Callback callback) {
+            callback.onResolved(new AddressResolver(operationExecutor, childNamesCache, metrics, profile).resolve(
+                    addressTemplate));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+
+    /**
+     * Executes the management operations without blocking the calling thread. The operations in flight are
+     * registered at the cancellation.
+     */
+    private final class AsyncExecution implements Execution {
+
+        private final Cancellation cancellation;
+
+        AsyncExecution(final Cancellation cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void execute(final List<ModelNode> operations, final OperationExecutor.Callback callback,
+                final Runnable done) {
+            operationExecutor.executeAsync(operations, cancellation, callback, done);
+        }
+
+        @Override
+        public void resolve(final AddressTemplate addressTemplate, final Profile profile,
+                final AddressResolver.Callback callback) {
+            new AddressResolver(operationExecutor, childNamesCache, metrics, profile).resolveAsync(addressTemplate,
+                    cancellation, callback);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancellation.isCancelled();
+        }
+    }
+
+
+    /**
+     * One compiled map / reduce operation of a batch.
+     */
+    private final class BatchQuery {
+
+        final int index;
+        final Query query;
+        final ResultCollector collector;
+        final Collector counting;
+
+        BatchQuery(final int index, final Query query) {
+            this.index = index;
+            this.query = query;
+            this.collector = new ResultCollector(query, metrics, Profile.DISABLED);
+            this.counting = countFailures(collector);
+        }
+    }
+
+
+    /**
+     * A read shared by the queries of a batch with the same {@code include-runtime} value. Queries with different
+     * values don't share reads, so queries with {@code include-runtime=false} never see runtime attributes. The
+     * resource is read completely if one query needs the complete resource. Otherwise the union of the projections is
+     * read.
+     */
+    private static final class SharedRead {
+
+        static ModelNode key(final ModelNode address, final boolean includeRuntime) {
+            return new ModelNode().add(address).add(includeRuntime);
+        }
+
+        final ModelNode address;
+        final boolean includeRuntime;
+        Set<String> attributes; // null for a complete read
+        boolean complete;
+        int consumers;
+        ModelNode node;
+
+        SharedRead(final ModelNode address, final boolean includeRuntime) {
+            this.address = address;
+            this.includeRuntime = includeRuntime;
+        }
+
+        void add(final Set<String> projection) {
+            consumers++;
+            if (projection.isEmpty()) {
+                complete = true;
+                attributes = null;
+            } else if (!complete) {
+                if (attributes == null) {
+                    attributes = new LinkedHashSet<>();
+                }
+                attributes.addAll(projection);
+            }
+        }
+    }
+
+
+    /**
+     * The result of a map / reduce operation in flight which is shared with identical operations. Uses plain JDK
+     * primitives, so the blocking execution doesn't depend on JBoss Threads.
+     */
+    private static final class Flight {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile ModelNode result;
+
+        void complete(final ModelNode result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        /**
+         * Blocks until the result is available.
+         *
+         * @return a copy of the result
+         */
+        ModelNode await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        done.await();
+                        return result.clone();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+
+    private static final class MapReduceFuture extends SimpleAsyncFuture<ModelNode> {
+
+        final Cancellation cancellation = new Cancellation();
+
+        void complete(final ModelNode result) {
+            setResult(result);
+        }
+
+        @Override
+        public void asyncCancel(final boolean interruptionDesired) {
+            // cancel first: the cancelled operations complete the remaining steps with failures
+            setCancelled();
+            cancellation.cancel();
+        }
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Listener for the streaming variant of a map / reduce operation. The methods might be called from different threads,
+ * but never concurrently.
+ *
+ * @author Harald Pehl
+ * @see MapReduceHandler#execute(ModelNode, MapReduceListener)
+ */
+public interface MapReduceListener {
+
+    /**
+     * Called for each resolved address as soon as its resource has been read, filtered and reduced.
+     *
+     * @param result a model node with the elements {@code address}, {@code outcome} and {@code result} or {@code
+     *               failure-description}
+     */
+    void onResult(ModelNode result);
+
+    /**
+     * Called once after all results have been passed to {@link #onResult(ModelNode)}.
+     *
+     * @param outcome a model node with the overall {@code outcome} and an optional {@code failure-description}
+     */
+    void onComplete(ModelNode outcome);
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Counters and per phase latency histograms of one {@link MapReduceHandler}. The counters and histograms are updated
+ * directly by the handler, the {@link AddressResolver} and the {@link OperationExecutor}. All members are thread
+ * safe.
+ *
+ * @author Harald Pehl
+ */
+final class MapReduceMetrics implements MapReduceMetricsMXBean {
+
+    final AtomicLong mapReduceOperations = new AtomicLong();
+    final AtomicLong coalescedOperations = new AtomicLong();
+    final AtomicLong managementOperations = new AtomicLong();
+    final AtomicLong resolvedAddresses = new AtomicLong();
+    final AtomicLong filteredOut = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong resultBytes = new AtomicLong();
+
+    final LatencyHistogram resolution = new LatencyHistogram();
+    final LatencyHistogram read = new LatencyHistogram();
+    final LatencyHistogram filter = new LatencyHistogram();
+    final LatencyHistogram reduce = new LatencyHistogram();
+    final LatencyHistogram result = new LatencyHistogram();
+
+    private final boolean countResultBytes;
+
+    MapReduceMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param countResultBytes whether {@link #countResult(ModelNode)} measures the results. Measuring serializes
+     *                         each result, so it's only done on request.
+     */
+    MapReduceMetrics(final boolean countResultBytes) {
+        this.countResultBytes = countResultBytes;
+    }
+
+    /**
+     * Adds the size of the binary DMR encoding of the node to the result bytes. Does nothing unless result bytes are
+     * counted.
+     */
+    void countResult(final ModelNode node) {
+        if (!countResultBytes) {
+            return;
+        }
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            node.writeExternal(new DataOutputStream(out));
+        } catch (IOException e) {
+            // not thrown by our stream
+        }
+        resultBytes.addAndGet(out.count);
+    }
+
+    @Override
+    public long getMapReduceOperations() {
+        return mapReduceOperations.get();
+    }
+
+    @Override
+    public long getCoalescedOperations() {
+        return coalescedOperations.get();
+    }
+
+    @Override
+    public long getManagementOperations() {
+        return managementOperations.get();
+    }
+
+    @Override
+    public long getResolvedAddresses() {
+        return resolvedAddresses.get();
+    }
+
+    @Override
+    public long getFilteredOut() {
+        return filteredOut.get();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public long getResultBytes() {
+        return resultBytes.get();
+    }
+
+    @Override
+    public PhaseStatistics getResolution() {
+        return PhaseStatistics.of(resolution);
+    }
+
+    @Override
+    public PhaseStatistics getRead() {
+        return PhaseStatistics.of(read);
+    }
+
+    @Override
+    public PhaseStatistics getFilter() {
+        return PhaseStatistics.of(filter);
+    }
+
+    @Override
+    public PhaseStatistics getReduce() {
+        return PhaseStatistics.of(reduce);
+    }
+
+    @Override
+    public PhaseStatistics getResult() {
+        return PhaseStatistics.of(result);
+    }
+
+    @Override
+    public void reset() {
+        mapReduceOperations.set(0);
+        coalescedOperations.set(0);
+        managementOperations.set(0);
+        resolvedAddresses.set(0);
+        filteredOut.set(0);
+        failed.set(0);
+        resultBytes.set(0);
+        resolution.reset();
+        read.reset();
+        filter.reset();
+        reduce.reset();
+        result.reset();
+    }
+
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+}
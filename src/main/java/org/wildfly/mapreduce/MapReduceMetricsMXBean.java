@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+/**
+ * Management interface of the metrics of a {@link MapReduceHandler}. If the system property {@code map-reduce.jmx} is
+ * {@code true}, each handler registers its metrics at the platform MBean server using the object name {@code
+ * org.wildfly.mapreduce:type=MapReduceHandler,name=<n>} until it's shut down.
+ *
+ * @author Harald Pehl
+ */
+public interface MapReduceMetricsMXBean {
+
+    /**
+     * @return the number of executed map / reduce operations
+     */
+    long getMapReduceOperations();
+
+    /**
+     * @return the number of map / reduce operations which shared the execution of an identical operation in flight
+     */
+    long getCoalescedOperations();
+
+    /**
+     * @return the number of management operations sent to the endpoint. A {@code composite} operation counts as one.
+     */
+    long getManagementOperations();
+
+    long getResolvedAddresses();
+
+    /**
+     * @return the number of resources which didn't match the filter
+     */
+    long getFilteredOut();
+
+    /**
+     * @return the number of failed results (unresolvable addresses, failed reads, undefined filter or reduce
+     * attributes)
+     */
+    long getFailed();
+
+    /**
+     * @return the size of the results in their binary DMR encoding or 0 unless the system property {@code
+     * map-reduce.metrics.result-bytes} is {@code true}
+     */
+    long getResultBytes();
+
+    /**
+     * @return the time to resolve the address templates
+     */
+    PhaseStatistics getResolution();
+
+    /**
+     * @return the time to read the resources of one map / reduce operation
+     */
+    PhaseStatistics getRead();
+
+    /**
+     * @return the time to match one resource against the filter
+     */
+    PhaseStatistics getFilter();
+
+    /**
+     * @return the time to reduce one resource
+     */
+    PhaseStatistics getReduce();
+
+    /**
+     * @return the time to build the result of one map / reduce operation
+     */
+    PhaseStatistics getResult();
+
+    void reset();
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Listener for a continuous query. The methods might be called from different threads, but never concurrently.
+ *
+ * @author Harald Pehl
+ * @see MapReduceHandler#subscribe(ModelNode, long, java.util.concurrent.TimeUnit, MapReduceSubscriptionListener)
+ */
+public interface MapReduceSubscriptionListener {
+
+    /**
+     * Called after an evaluation whose results differ from the results of the previous evaluation. The first
+     * evaluation reports all results as added.
+     *
+     * @param diff a model node with the lists {@code added} and {@code changed} containing the new results (the same
+     *             elements as passed to {@link MapReduceListener#onResult(ModelNode)}) and the list {@code removed}
+     *             containing the addresses of the results which are gone
+     */
+    void onChange(ModelNode diff);
+
+    /**
+     * Called if an evaluation failed as a whole, has been cancelled or its results couldn't be compared (e.g. because
+     * {@link #onChange(ModelNode)} threw an exception). The subscription goes on with the next evaluation.
+     *
+     * @param outcome a model node with the {@code outcome} and the {@code failure-description}
+     */
+    void onFailure(ModelNode outcome);
+}
@@ -22,6 +22,7 @@
 package org.wildfly.mapreduce;
 
 import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.FAILED;
 
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
@@ -43,6 +44,13 @@ final class ModelNodeUtils {
         return failureNode.isDefined() ? failureNode.asString() : "Unknown error";
     }
 
+    static ModelNode failure(String description) {
+        ModelNode response = new ModelNode();
+        response.get(OUTCOME).set(FAILED);
+        response.get(FAILURE_DESCRIPTION).set(description);
+        return response;
+    }
+
     static String formatAddress(ModelNode address) {
         StringBuilder builder = new StringBuilder();
         if (address.getType() == ModelType.LIST) {
@@ -0,0 +1,452 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static java.util.Collections.singletonList;
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+import static org.wildfly.mapreduce.MapReduceConstants.FAILED;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Executes a list of independent management operations. The operations are split into batches of {@code batchSize}
+ * operations. Each batch is sent as one {@code composite} operation and the step results are mapped back onto the
+ * single operations. If an executor is given, the batches are executed concurrently.
+ * <p/>
+ * No matter how the operations are executed, the returned list contains one response per operation in the order of
+ * the specified operations. Alternatively the responses can be consumed by a {@link Callback} as soon as they arrive.
+ * I/O errors don't escape: They're reported as failed responses. The operations can also be executed asynchronously
+ * using {@link #executeAsync(List, Cancellation, Callback, Runnable)}. In both cases at most {@code parallelism}
+ * batches are outstanding at any time.
+ * <p/>
+ * If a {@link ReadCache} is given, cached read operations are answered from the cache right away and only the
+ * remaining operations are executed. Their successful responses are put into the cache.
+ *
+ * @author Harald Pehl
+ */
+final class OperationExecutor {
+
+    private final ModelControllerClient client;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final MapReduceMetrics metrics;
+    private final ReadCache readCache;
+
+    OperationExecutor(final ModelControllerClient client, final ExecutorService executor, final int batchSize) {
+        this(client, executor, 1, batchSize, new MapReduceMetrics(), null);
+    }
+
+    /**
+     * @param client      the client used to execute the operations
+     * @param executor    the executor used to execute the batches concurrently. If {@code null} the batches are
+     *                    executed sequentially in the calling thread.
+     * @param parallelism the maximum number of batches which are executed asynchronously at the same time. Should
+     *                    match the number of threads of {@code executor}. If {@code <= 1} the batches are executed
+     *                    one after another.
+     * @param batchSize   the maximum number of operations per {@code composite} operation. If {@code <= 1} each
+     *                    operation is executed on its own.
+     * @param metrics     the metrics which count the executed management operations
+     * @param readCache   an optional cache for the responses of read operations. Can be {@code null}.
+     */
+    OperationExecutor(final ModelControllerClient client, final ExecutorService executor, final int parallelism,
+            final int batchSize, final MapReduceMetrics metrics, final ReadCache readCache) {
+        this.client = client;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.metrics = metrics;
+        this.readCache = readCache;
+    }
+
+    List<ModelNode> execute(final List<ModelNode> operations) {
+        final ModelNode[] responses = new ModelNode[operations.size()];
+        execute(operations, new Callback() {
+            @Override
+            public void onResponse(final int index, final ModelNode response, final long nanos) {
+                responses[index] = response;
+            }
+        });
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Executes the specified operations and passes each response to the callback as soon as its batch has been
+     * executed. If the batches are executed concurrently, the callback is called from different threads and not in
+     * the order of the operations. This method returns once all operations have been executed.
+     */
+    void execute(final List<ModelNode> operations, final Callback callback) {
+        if (readCache != null) {
+            CachedReads cachedReads = new CachedReads(operations, callback);
+            executeUncached(cachedReads.uncached, cachedReads);
+        } else {
+            executeUncached(operations, callback);
+        }
+    }
+
+    private void executeUncached(final List<ModelNode> operations, final Callback callback) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i += batchSize) {
+            final int start = i;
+            final List<ModelNode> batch = operations.subList(i, Math.min(i + batchSize, operations.size()));
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long begin = System.nanoTime();
+                    List<ModelNode> responses = executeBatch(batch);
+                    long nanos = System.nanoTime() - begin;
+                    for (int j = 0; j < responses.size(); j++) {
+                        callback.onResponse(start + j, responses.get(j), nanos);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            if (executor == null || tasks.size() == 1) {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            } else {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while executing operations", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // not thrown by our tasks
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executes the specified operations using {@link ModelControllerClient#executeAsync(ModelNode,
+     * org.jboss.as.controller.client.OperationMessageHandler)} without blocking the calling thread. Up to {@code
+     * parallelism} batches are sent at once. Whenever a batch has completed, the next one is sent. Each response is
+     * passed to the callback as soon as its batch has completed, possibly from different threads. After the last
+     * response has been passed, {@code done} is run.
+     * <p/>
+     * All operations are registered at the cancellation. Cancelled operations are reported as failed responses.
+     */
+    void executeAsync(final List<ModelNode> operations, final Cancellation cancellation, final Callback callback,
+            final Runnable done) {
+        if (readCache != null) {
+            CachedReads cachedReads = new CachedReads(operations, callback);
+            executeUncachedAsync(cachedReads.uncached, cancellation, cachedReads, done);
+        } else {
+            executeUncachedAsync(operations, cancellation, callback, done);
+        }
+    }
+
+    private void executeUncachedAsync(final List<ModelNode> operations, final Cancellation cancellation,
+            final Callback callback, final Runnable done) {
+        if (operations.isEmpty()) {
+            done.run();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(operations.size());
+        Callback counting = new Callback() {
+            @Override
+            public void onResponse(final int index, final ModelNode response, final long nanos) {
+                callback.onResponse(index, response, nanos);
+                if (remaining.decrementAndGet() == 0) {
+                    done.run();
+                }
+            }
+        };
+        new Window(operations, cancellation, counting).release(parallelism);
+    }
+
+    private void executeBatchAsync(final int start, final List<ModelNode> batch, final Cancellation cancellation,
+            final Callback callback) {
+        if (batch.size() == 1) {
+            executeSingleAsync(start, batch.get(0), cancellation, callback);
+            return;
+        }
+
+        final long begin = System.nanoTime();
+        submit(composite(batch), cancellation, new AsyncCallback() {
+            @Override
+            public void onComplete(final ModelNode response) {
+                long nanos = System.nanoTime() - begin;
+                ModelNode stepResults = response.get(RESULT);
+                for (int i = 0; i < batch.size(); i++) {
+                    String step = "step-" + (i + 1);
+                    if (stepResults.hasDefined(step) && isComplete(stepResults.get(step))) {
+                        callback.onResponse(start + i, stepResults.get(step), nanos);
+                    } else {
+                        // the composite failed before this step was executed
+                        executeSingleAsync(start + i, batch.get(i), cancellation, callback);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(final String failure) {
+                long nanos = System.nanoTime() - begin;
+                for (int i = 0; i < batch.size(); i++) {
+                    callback.onResponse(start + i, ModelNodeUtils.failure(failure), nanos);
+                }
+            }
+        });
+    }
+
+    private void executeSingleAsync(final int index, final ModelNode operation, final Cancellation cancellation,
+            final Callback callback) {
+        final long begin = System.nanoTime();
+        submit(operation, cancellation, new AsyncCallback() {
+            @Override
+            public void onComplete(final ModelNode response) {
+                callback.onResponse(index, response, System.nanoTime() - begin);
+            }
+
+            @Override
+            public void onFailure(final String failure) {
+                callback.onResponse(index, ModelNodeUtils.failure(failure), System.nanoTime() - begin);
+            }
+        });
+    }
+
+    private void submit(final ModelNode operation, final Cancellation cancellation, final AsyncCallback callback) {
+        if (cancellation.isCancelled()) {
+            callback.onFailure("Cancelled");
+            return;
+        }
+        AsyncFuture<ModelNode> future;
+        try {
+            metrics.managementOperations.incrementAndGet();
+            future = client.executeAsync(operation, null);
+        } catch (RuntimeException e) {
+            callback.onFailure(e.getMessage());
+            return;
+        }
+        cancellation.register(future);
+        future.addListener(new AsyncFuture.Listener<ModelNode, Void>() {
+            @Override
+            public void handleComplete(final AsyncFuture<? extends ModelNode> future, final Void attachment) {
+                cancellation.unregister(future);
+                try {
+                    callback.onComplete(future.getUninterruptibly());
+                } catch (ExecutionException e) {
+                    callback.onFailure(e.getCause().getMessage());
+                }
+            }
+
+            @Override
+            public void handleFailed(final AsyncFuture<? extends ModelNode> future, final Throwable cause,
+                    final Void attachment) {
+                cancellation.unregister(future);
+                callback.onFailure(cause.getMessage());
+            }
+
+            @Override
+            public void handleCancelled(final AsyncFuture<? extends ModelNode> future, final Void attachment) {
+                cancellation.unregister(future);
+                callback.onFailure("Cancelled");
+            }
+        }, null);
+    }
+
+    private List<ModelNode> executeBatch(final List<ModelNode> batch) {
+        if (batch.size() == 1) {
+            return singletonList(executeSingle(batch.get(0)));
+        }
+
+        List<ModelNode> responses = new ArrayList<>(batch.size());
+        try {
+            metrics.managementOperations.incrementAndGet();
+            ModelNode stepResults = client.execute(composite(batch)).get(RESULT);
+            for (int i = 0; i < batch.size(); i++) {
+                String step = "step-" + (i + 1);
+                if (stepResults.hasDefined(step) && isComplete(stepResults.get(step))) {
+                    responses.add(stepResults.get(step));
+                } else {
+                    // the composite failed before this step was executed
+                    responses.add(executeSingle(batch.get(i)));
+                }
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < batch.size(); i++) {
+                responses.add(ModelNodeUtils.failure(e.getMessage()));
+            }
+        }
+        return responses;
+    }
+
+    private ModelNode composite(final List<ModelNode> batch) {
+        ModelNode composite = new ModelNode();
+        composite.get(ADDRESS).setEmptyList();
+        composite.get(OP).set(COMPOSITE);
+        for (ModelNode operation : batch) {
+            composite.get(STEPS).add(operation);
+        }
+        return composite;
+    }
+
+    private boolean isComplete(final ModelNode stepResult) {
+        String outcome = stepResult.get(OUTCOME).asString();
+        return SUCCESS.equals(outcome) || (FAILED.equals(outcome) && stepResult.hasDefined(FAILURE_DESCRIPTION));
+    }
+
+    private ModelNode executeSingle(final ModelNode operation) {
+        try {
+            metrics.managementOperations.incrementAndGet();
+            return client.execute(operation);
+        } catch (IOException e) {
+            return ModelNodeUtils.failure(e.getMessage());
+        }
+    }
+
+
+    interface Callback {
+
+        /**
+         * Passed as {@code nanos} if the response was taken from the {@link ReadCache}.
+         */
+        long CACHED = -1;
+
+        /**
+         * @param index    the index of the operation
+         * @param response the response of the operation
+         * @param nanos    the time it took to execute the operation or its batch or {@link #CACHED}
+         */
+        void onResponse(int index, ModelNode response, long nanos);
+    }
+
+
+    /**
+     * Answers the cached operations in the constructor and collects the remaining operations in {@link #uncached}.
+     * The responses of the uncached operations are put into the cache and passed to the callback using the index of
+     * the original operation.
+     */
+    private final class CachedReads implements Callback {
+
+        final List<ModelNode> uncached;
+        private final List<Integer> indices;
+        private final Callback callback;
+
+        CachedReads(final List<ModelNode> operations, final Callback callback) {
+            this.uncached = new ArrayList<>(operations.size());
+            this.indices = new ArrayList<>(operations.size());
+            this.callback = callback;
+            for (int i = 0; i < operations.size(); i++) {
+                ModelNode cached = readCache.get(operations.get(i));
+                if (cached != null) {
+                    callback.onResponse(i, cached, CACHED);
+                } else {
+                    uncached.add(operations.get(i));
+                    indices.add(i);
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(final int index, final ModelNode response, final long nanos) {
+            readCache.put(uncached.get(index), response);
+            callback.onResponse(indices.get(index), response, nanos);
+        }
+    }
+
+
+    /**
+     * Limits the number of outstanding asynchronous batches. Each completed batch releases a slot which is used to
+     * send the next batch. Batches which complete right away (e.g. because the operation was cancelled) release their
+     * slot while the window is sending: The sending thread picks up the slot in its loop instead of recursing.
+     */
+    private final class Window {
+
+        private final List<ModelNode> operations;
+        private final Cancellation cancellation;
+        private final Callback callback;
+        private int next; // index of the next batch to send, guarded by this
+        private int slots; // released slots not yet used, guarded by this
+        private boolean sending; // guarded by this
+
+        Window(final List<ModelNode> operations, final Cancellation cancellation, final Callback callback) {
+            this.operations = operations;
+            this.cancellation = cancellation;
+            this.callback = callback;
+        }
+
+        void release(final int count) {
+            synchronized (this) {
+                slots += count;
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            while (true) {
+                final int start;
+                synchronized (this) {
+                    if (slots == 0 || next >= operations.size()) {
+                        sending = false;
+                        return;
+                    }
+                    slots--;
+                    start = next;
+                    next += batchSize;
+                }
+                final List<ModelNode> batch = operations.subList(start, Math.min(start + batchSize,
+                        operations.size()));
+                final AtomicInteger remaining = new AtomicInteger(batch.size());
+                executeBatchAsync(start, batch, cancellation, new Callback() {
+                    @Override
+                    public void onResponse(final int index, final ModelNode response, final long nanos) {
+                        callback.onResponse(index, response, nanos);
+                        if (remaining.decrementAndGet() == 0) {
+                            release(1);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+
+    private interface AsyncCallback {
+
+        void onComplete(ModelNode response);
+
+        void onFailure(String failure);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Limits the number of results to one page. The resolved responses are read in chunks, whose size is estimated
+ * from the number of results still needed and the ratio of results to responses read so far. The results of a
+ * chunk are buffered and passed to the delegate in the order of their indices once the chunk has been read
+ * ({@link #flush()}). Once the page is full, no more chunks are read. The responses after the last result are
+ * kept as {@link #remaining()} responses, so that the next page can be read without resolving the address
+ * template again.
+ *
+ * @author Harald Pehl
+ */
+final class PageCollector implements Collector {
+
+    /**
+     * @return copies of the responses which are not failed, so that they can be read (again)
+     */
+    static List<Response> unread(final List<Response> responses) {
+        List<Response> unread = new ArrayList<>(responses.size());
+        for (Response response : responses) {
+            // failures of the resolution are kept as is
+            unread.add(response.isFailed() ? response : response.prepareCopy());
+        }
+        return unread;
+    }
+
+    private final Collector delegate;
+    private final int limit;
+    private final List<Response> continuation;
+    private final SortedMap<Integer, Response> buffer;
+    private List<Response> chunk;
+    private List<Response> rest;
+    private List<Response> remaining;
+    private int results;
+    private int read;
+    private boolean expired;
+
+    /**
+     * @param continuation the remaining responses of the previous page or {@code null} if this is the first page
+     */
+    PageCollector(final Collector delegate, final int limit, final List<Response> continuation) {
+        this.delegate = delegate;
+        this.limit = limit;
+        this.continuation = continuation;
+        this.buffer = new TreeMap<>();
+        this.remaining = Collections.emptyList();
+    }
+
+    List<Response> continuation() {
+        return continuation;
+    }
+
+    @Override
+    public synchronized void collect(final int index, final Response response) {
+        buffer.put(index, response);
+    }
+
+    synchronized boolean isFull() {
+        return results >= limit;
+    }
+
+    /**
+     * @return the next chunk of responses starting at {@code from}
+     */
+    synchronized List<Response> nextChunk(final List<Response> responses, final int from) {
+        long needed = limit - results;
+        long size;
+        if (results > 0) {
+            size = (needed * read + results - 1) / results;
+        } else {
+            // no results so far: double the chunk size
+            size = read > 0 ? 2L * read : needed;
+        }
+        int to = (int) Math.min(responses.size(), from + Math.max(needed, size));
+        chunk = new ArrayList<>(responses.subList(from, to));
+        rest = responses.subList(to, responses.size());
+        return chunk;
+    }
+
+    /**
+     * Passes the buffered results of the current chunk to the delegate until the page is full.
+     */
+    synchronized void flush() {
+        if (expired) {
+            return;
+        }
+        Response last = null;
+        for (Response response : buffer.values()) {
+            if (results == limit) {
+                break;
+            }
+            delegate.collect(results, response);
+            results++;
+            last = response;
+        }
+        buffer.clear();
+        if (chunk != null) {
+            read += chunk.size();
+            if (last != null && results == limit) {
+                // continue after the last result (which is a copy if it has been failed by a timeout)
+                int position = chunk.size() - 1;
+                while (position >= 0 && chunk.get(position) != last && !chunk.get(position).address()
+                        .equals(last.address())) {
+                    position--;
+                }
+                List<Response> next = new ArrayList<>(chunk.subList(position + 1, chunk.size()));
+                next.addAll(rest);
+                remaining = unread(next);
+            }
+        }
+    }
+
+    /**
+     * Flushes the current chunk and makes the responses after the chunk the remaining ones.
+     */
+    synchronized void expire() {
+        flush();
+        expired = true;
+        if (results < limit && rest != null) {
+            remaining = unread(rest);
+        }
+    }
+
+    synchronized List<Response> remaining() {
+        return remaining;
+    }
+}
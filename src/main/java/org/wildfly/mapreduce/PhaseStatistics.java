@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Latency statistics of one phase of the map / reduce operations. All times are in microseconds.
+ *
+ * @author Harald Pehl
+ */
+public final class PhaseStatistics {
+
+    private final long count;
+    private final long meanMicros;
+    private final long maxMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+
+    @ConstructorProperties({"count", "meanMicros", "maxMicros", "p50Micros", "p90Micros", "p99Micros"})
+    public PhaseStatistics(final long count, final long meanMicros, final long maxMicros, final long p50Micros,
+            final long p90Micros, final long p99Micros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.maxMicros = maxMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+    }
+
+    static PhaseStatistics of(final LatencyHistogram histogram) {
+        return new PhaseStatistics(histogram.count(), histogram.meanMicros(), histogram.maxMicros(),
+                histogram.percentileMicros(50), histogram.percentileMicros(90), histogram.percentileMicros(99));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    @Override
+    public String toString() {
+        return "PhaseStatistics(count=" + count + ", mean=" + meanMicros + "us, max=" + maxMicros + "us, p50=" +
+                p50Micros + "us, p90=" + p90Micros + "us, p99=" + p99Micros + "us)";
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Execution profile of one map / reduce operation, which is returned as part of the result if the operation contains
+ * {@code profile=true}. The profile contains the time spent per phase, the number of {@code read-children-names} and
+ * {@code read-resource} operations, the slowest addresses, the hits and misses of the resolution cache and the hits of
+ * the read cache.
+ * <p/>
+ * The time of the phases filter and reduce is the sum over all resources. The latency of an address is the latency of
+ * its {@code read-resource} operation or - if the operations are packed into {@code composite} operations - the
+ * latency of its batch. Use {@link #DISABLED} if no profile was requested. All methods are thread safe.
+ *
+ * @author Harald Pehl
+ */
+final class Profile {
+
+    static final Profile DISABLED = new Profile(false);
+
+    /**
+     * The number of slowest addresses kept in the profile.
+     */
+    static final int SLOWEST = 10;
+
+    private static final Comparator<Latency> BY_NANOS = new Comparator<Latency>() {
+        @Override
+        public int compare(final Latency l1, final Latency l2) {
+            return Long.compare(l1.nanos, l2.nanos);
+        }
+    };
+
+    private final boolean enabled;
+    private final long start;
+    private final PriorityQueue<Latency> slowest;
+    private long resolution;
+    private long read;
+    private long filter;
+    private long reduce;
+    private long result;
+    private int readChildrenNames;
+    private int readResource;
+    private int cacheHits;
+    private int cacheMisses;
+    private int readCacheHits;
+
+    Profile() {
+        this(true);
+    }
+
+    private Profile(final boolean enabled) {
+        this.enabled = enabled;
+        this.start = System.nanoTime();
+        this.slowest = enabled ? new PriorityQueue<>(SLOWEST + 1, BY_NANOS) : null;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void resolution(final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                resolution += nanos;
+            }
+        }
+    }
+
+    void read(final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                read += nanos;
+            }
+        }
+    }
+
+    void filter(final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                filter += nanos;
+            }
+        }
+    }
+
+    void reduce(final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                reduce += nanos;
+            }
+        }
+    }
+
+    void result(final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                result += nanos;
+            }
+        }
+    }
+
+    void readChildrenNames(final int operations) {
+        if (enabled) {
+            synchronized (this) {
+                readChildrenNames += operations;
+            }
+        }
+    }
+
+    void cacheLookup(final boolean hit) {
+        if (enabled) {
+            synchronized (this) {
+                if (hit) {
+                    cacheHits++;
+                } else {
+                    cacheMisses++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts one {@code read-resource} operation and keeps the address if it's one of the {@link #SLOWEST} ones.
+     * Reads answered from the read cache ({@code nanos == OperationExecutor.Callback.CACHED}) are counted as read
+     * cache hits instead.
+     */
+    void readResource(final Response response, final long nanos) {
+        if (enabled) {
+            synchronized (this) {
+                if (nanos == OperationExecutor.Callback.CACHED) {
+                    readCacheHits++;
+                    return;
+                }
+                readResource++;
+                if (slowest.size() < SLOWEST || slowest.peek().nanos < nanos) {
+                    slowest.offer(new Latency(response, nanos));
+                    if (slowest.size() > SLOWEST) {
+                        slowest.poll();
+                    }
+                }
+            }
+        }
+    }
+
+    synchronized ModelNode asModelNode() {
+        ModelNode node = new ModelNode();
+        node.get("total-time").set(micros(System.nanoTime() - start));
+        ModelNode phases = node.get("phases");
+        phases.get("resolution").set(micros(resolution));
+        phases.get("read").set(micros(read));
+        phases.get("filter").set(micros(filter));
+        phases.get("reduce").set(micros(reduce));
+        phases.get("result").set(micros(result));
+        node.get("read-children-names").set(readChildrenNames);
+        node.get("read-resource").set(readResource);
+
+        List<Latency> latencies = new ArrayList<>(slowest);
+        Collections.sort(latencies, Collections.reverseOrder(BY_NANOS));
+        ModelNode slowestAddresses = node.get("slowest").setEmptyList();
+        for (Latency latency : latencies) {
+            ModelNode entry = new ModelNode();
+            entry.get(ADDRESS).set(latency.response.address());
+            entry.get("latency").set(micros(latency.nanos));
+            slowestAddresses.add(entry);
+        }
+
+        ModelNode cache = node.get("resolution-cache");
+        cache.get("hits").set(cacheHits);
+        cache.get("misses").set(cacheMisses);
+        int lookups = cacheHits + cacheMisses;
+        cache.get("hit-ratio").set(lookups == 0 ? 0.0 : (double) cacheHits / lookups);
+        node.get("read-cache", "hits").set(readCacheHits);
+        return node;
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+
+    private static final class Latency {
+
+        final Response response;
+        final long nanos;
+
+        Latency(final Response response, final long nanos) {
+            this.response = response;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * A validated and compiled map / reduce operation. Holds everything the execution needs to know about the operation:
+ * The address template, the filter, the reducing attributes, the aggregation or grouping and the attributes to read
+ * ({@link #projection}).
+ * <p/>
+ * The aggregation and the grouping accumulate the results, so a query must be used for one execution only.
+ *
+ * @author Harald Pehl
+ */
+final class Query {
+
+    /**
+     * Aggregated attributes of a grouping by address segment which needs no attributes at all (e.g. {@code
+     * count(*)}). Compared by identity.
+     */
+    private static final Set<String> ADDRESSES_ONLY = Collections.unmodifiableSet(new LinkedHashSet<String>());
+
+    /**
+     * Validates and compiles the specified operation.
+     *
+     * @throws java.lang.IllegalArgumentException      for an invalid map / reduce operation
+     * @throws java.lang.UnsupportedOperationException for an invalid map / reduce operation
+     */
+    static Query compile(final ModelNode mapReduceOp) {
+        validate(mapReduceOp);
+        return new Query(mapReduceOp);
+    }
+
+    final ModelNode operation;
+    final AddressTemplate addressTemplate;
+    final Filter filter; // null if there's no filter
+    final ModelNode attributes; // undefined if there's no reduce list
+    final Aggregation aggregation; // null if there's no aggregation
+    final Grouping grouping; // null if there's no grouping
+    /**
+     * The attributes to read, an empty set if the resources are read completely or {@code null} if the resources
+     * are not read at all.
+     */
+    final Set<String> projection;
+    final boolean includeRuntime;
+    final boolean preFilter;
+    final boolean serverSideResolution;
+
+    private Query(final ModelNode mapReduceOp) {
+        boolean conjunct = !mapReduceOp.get(FILTER_CONJUNCT).isDefined() || mapReduceOp.get(FILTER_CONJUNCT)
+                .asBoolean();
+
+        this.operation = mapReduceOp;
+        this.addressTemplate = new AddressTemplate(mapReduceOp.get(ADDRESS_TEMPLATE));
+        this.filter = Filter.compile(mapReduceOp.get(FILTER), conjunct);
+        this.attributes = mapReduceOp.get(REDUCE);
+        this.aggregation = Aggregation.compile(mapReduceOp.get(AGGREGATE));
+        this.grouping = Grouping.compile(mapReduceOp.get(GROUP_BY), addressTemplate, aggregation);
+        this.projection = projection(filter, attributes, aggregatedAttributes(aggregation, grouping));
+        this.includeRuntime = !mapReduceOp.hasDefined(INCLUDE_RUNTIME) || mapReduceOp.get(INCLUDE_RUNTIME)
+                .asBoolean();
+        this.preFilter = filter != null && projection != null && projection.isEmpty()
+                && mapReduceOp.hasDefined(PREFILTER) && mapReduceOp.get(PREFILTER).asBoolean();
+        this.serverSideResolution = mapReduceOp.hasDefined(SERVER_SIDE_RESOLUTION) && mapReduceOp.get(
+                SERVER_SIDE_RESOLUTION).asBoolean();
+    }
+
+    /**
+     * @return the names of the filter, reduce and aggregated attributes if a reduce list or aggregated attributes are
+     * given, an empty set otherwise (i.e. the resources are read completely). Returns {@code null} if the grouping by
+     * address segment needs the resolved addresses only (e.g. {@code count(*)}). The resources are not read then.
+     */
+    private static Set<String> projection(final Filter filter, final ModelNode attributes,
+            final Set<String> aggregatedAttributes) {
+        if (filter == null && !attributes.isDefined() && aggregatedAttributes == ADDRESSES_ONLY) {
+            return null;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        if (attributes.isDefined() || aggregatedAttributes != null) {
+            if (filter != null) {
+                names.addAll(filter.attributeNames());
+            }
+            if (attributes.isDefined()) {
+                for (ModelNode attribute : attributes.asList()) {
+                    names.add(attribute.asString());
+                }
+            }
+            if (aggregatedAttributes != null) {
+                names.addAll(aggregatedAttributes);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the attributes used by the grouping or aggregation, {@link #ADDRESSES_ONLY} if the grouping needs the
+     * addresses only or {@code null} if there's neither a grouping nor an aggregation
+     */
+    private static Set<String> aggregatedAttributes(final Aggregation aggregation, final Grouping grouping) {
+        if (grouping != null) {
+            Set<String> names = grouping.attributeNames();
+            return names.isEmpty() ? ADDRESSES_ONLY : names;
+        } else if (aggregation != null) {
+            return aggregation.attributeNames();
+        }
+        return null;
+    }
+
+    /**
+     * @return a new profile if the operation contains {@code profile=true}, {@link Profile#DISABLED} otherwise
+     */
+    Profile createProfile() {
+        return operation.hasDefined(PROFILE) && operation.get(PROFILE).asBoolean() ? new Profile()
+                : Profile.DISABLED;
+    }
+
+    /**
+     * @return {@code true} if the results are aggregated or grouped instead of being returned one by one
+     */
+    boolean isAggregate() {
+        return aggregation != null || grouping != null;
+    }
+
+    /**
+     * Folds the response into the groups or the aggregation. Failed responses are counted, but not folded.
+     *
+     * @return {@code false} if there's neither a grouping nor an aggregation, {@code true} otherwise
+     */
+    boolean aggregate(final Response response) {
+        if (grouping != null) {
+            if (!response.isFailed()) {
+                grouping.accumulate(response.address(), response.result);
+            }
+            return true;
+        } else if (aggregation != null) {
+            if (!response.isFailed()) {
+                aggregation.accumulate(response.result);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the aggregate as result. Failed resources are not part of an aggregate. If there are any, the result is
+     * marked as partial and contains their number as {@code failed-resources}.
+     */
+    void aggregateResult(final ModelNode result, final int failed) {
+        result.get(RESULT).set(grouping != null ? grouping.result() : aggregation.result());
+        if (failed > 0) {
+            result.get(PARTIAL).set(true);
+            result.get(FAILED_RESOURCES).set(failed);
+        }
+    }
+
+    static void validate(final ModelNode operation) {
+        // address
+        if (!operation.get(ADDRESS_TEMPLATE).isDefined()) {
+            throw new IllegalArgumentException("No address given");
+        }
+        ModelNode address = operation.get(ADDRESS_TEMPLATE);
+        if (address.getType() != ModelType.LIST) {
+            throw new IllegalArgumentException(
+                    "Address must be of type " + ModelType.LIST + ", but was " + address.getType());
+        }
+        for (Property path : address.asPropertyList()) {
+            if (WILDCARD.equals(path.getName())) {
+                throw new IllegalArgumentException("Illegal usage of wildcards in " + ModelNodeUtils
+                        .formatAddress(address) + " for segment " + path.getName() + "=" + path.getValue().asString());
+            }
+        }
+
+        // operation
+        if (!operation.get(OP).isDefined()) {
+            throw new IllegalArgumentException("No operation given");
+        }
+        String op = operation.get(OP).asString();
+        if (!MAP_REDUCE_OP.equals(op)) {
+            throw new UnsupportedOperationException("Unsupported operation " + op);
+        }
+
+        // Even if you filter only one attribute it has to be inside a list
+        ModelNode filter = operation.get(FILTER);
+        if (filter.isDefined()) {
+            if (filter.getType() != ModelType.LIST) {
+                throw new IllegalArgumentException(
+                        "Filter must be of type " + ModelType.LIST + ", but was " + filter.getType());
+            }
+        }
+
+        ModelNode attributes = operation.get(REDUCE);
+        if (attributes.isDefined()) {
+            if (attributes.getType() != ModelType.LIST) {
+                throw new IllegalArgumentException(
+                        "Attributes must be of type " + ModelType.LIST + ", but was " + attributes.getType());
+            }
+            if (attributes.asList().isEmpty()) {
+                throw new IllegalArgumentException("Attributes must not be empty");
+            }
+        }
+
+        if (attributes.isDefined() && (operation.get(AGGREGATE).isDefined() || operation.get(GROUP_BY).isDefined())) {
+            throw new IllegalArgumentException("Reduce must not be used together with aggregate or group by");
+        }
+
+        if (operation.hasDefined(TIMEOUT) && operation.get(TIMEOUT).asLong() <= 0) {
+            throw new IllegalArgumentException("Timeout must be greater than 0");
+        }
+
+        if (operation.hasDefined(LIMIT) && operation.get(LIMIT).asInt() <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than 0");
+        }
+        if ((operation.hasDefined(LIMIT) || operation.hasDefined(CURSOR)) && (operation.get(AGGREGATE)
+                .isDefined() || operation.get(GROUP_BY).isDefined())) {
+            throw new IllegalArgumentException("Limit and cursor must not be used together with aggregate or group by");
+        }
+
+        if ((operation.hasDefined(DELTA) || operation.hasDefined(VERSION)) && (operation.get(AGGREGATE)
+                .isDefined() || operation.get(GROUP_BY).isDefined() || operation.hasDefined(LIMIT) || operation
+                .hasDefined(CURSOR))) {
+            throw new IllegalArgumentException(
+                    "Delta and version must not be used together with aggregate, group by, limit or cursor");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+import static org.wildfly.mapreduce.MapReduceConstants.WILDCARD;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+
+/**
+ * Caches the successful responses of read operations. A response is only cached if a policy matches the address of
+ * the operation. A policy consists of an address pattern like {@code host=*&#47;server-config=*} and two times to
+ * live: One for {@code read-resource(include-runtime=true)} operations and one for config-only {@code read-resource}
+ * operations. The kind of read is taken from the {@code include-runtime} flag of the operation. Since {@code
+ * read-attribute} operations always return the runtime values, projections using {@code composite} operations of
+ * {@code read-attribute} steps are subject to the {@code include-runtime} time to live. Config-only projections are
+ * {@code read-resource} operations and use the config-only time to live.
+ * <p/>
+ * The first policy whose pattern matches wins. A pattern matches addresses with the same number of segments whose
+ * types are equal and whose names are equal or {@code *}. Each policy uses one {@link ExpiringCache} per time to live
+ * with the given maximum size. A time to live {@code <= 0} disables the cache for that kind of read.
+ * <p/>
+ * The responses are copied when they're put into and taken from the cache, so callers are free to modify them. All
+ * methods are thread safe.
+ *
+ * @author Harald Pehl
+ */
+final class ReadCache {
+
+    private final int size;
+    private final List<Policy> policies;
+
+    ReadCache(final int size) {
+        this.size = size;
+        this.policies = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * @param addressPattern    the address pattern as list of properties
+     * @param includeRuntimeTtl the time to live of runtime reads in milliseconds
+     * @param configTtl         the time to live of config-only reads in milliseconds
+     */
+    void addPolicy(final ModelNode addressPattern, final long includeRuntimeTtl, final long configTtl) {
+        policies.add(new Policy(addressPattern.asPropertyList(), cache(includeRuntimeTtl), cache(configTtl)));
+    }
+
+    private ExpiringCache<ModelNode, ModelNode> cache(final long ttl) {
+        return ttl > 0 && size > 0 ? new ExpiringCache<ModelNode, ModelNode>(size, ttl, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * @return a copy of the cached response or {@code null} if the operation is not cached
+     */
+    ModelNode get(final ModelNode operation) {
+        ExpiringCache<ModelNode, ModelNode> cache = cacheFor(operation);
+        if (cache != null) {
+            ModelNode response = cache.get(operation);
+            if (response != null) {
+                return response.clone();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches a copy of the response if it's successful and a policy matches the operation.
+     */
+    void put(final ModelNode operation, final ModelNode response) {
+        if (ModelNodeUtils.wasSuccessful(response)) {
+            ExpiringCache<ModelNode, ModelNode> cache = cacheFor(operation);
+            if (cache != null) {
+                cache.put(operation, response.clone());
+            }
+        }
+    }
+
+    void invalidate() {
+        for (Policy policy : policies) {
+            if (policy.runtime != null) {
+                policy.runtime.invalidate();
+            }
+            if (policy.config != null) {
+                policy.config.invalidate();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the statistics ({@code size}, {@code hits}, {@code misses} and {@code evictions}) of all
+     * policies
+     */
+    ModelNode statistics() {
+        long[] sums = new long[4];
+        for (Policy policy : policies) {
+            add(sums, policy.runtime);
+            add(sums, policy.config);
+        }
+        ModelNode statistics = new ModelNode();
+        statistics.get("size").set(sums[0]);
+        statistics.get("hits").set(sums[1]);
+        statistics.get("misses").set(sums[2]);
+        statistics.get("evictions").set(sums[3]);
+        return statistics;
+    }
+
+    private void add(final long[] sums, final ExpiringCache<ModelNode, ModelNode> cache) {
+        if (cache != null) {
+            ModelNode statistics = cache.statistics();
+            sums[0] += statistics.get("size").asLong();
+            sums[1] += statistics.get("hits").asLong();
+            sums[2] += statistics.get("misses").asLong();
+            sums[3] += statistics.get("evictions").asLong();
+        }
+    }
+
+    /**
+     * @return the cache of the first policy matching the operation or {@code null} if the operation is no read
+     * operation or if no policy matches
+     */
+    private ExpiringCache<ModelNode, ModelNode> cacheFor(final ModelNode operation) {
+        if (policies.isEmpty()) {
+            return null;
+        }
+        String name = operation.get(OP).asString();
+        ModelNode address;
+        boolean runtime;
+        if (READ_RESOURCE_OPERATION.equals(name)) {
+            address = operation.get(ADDRESS);
+            runtime = operation.hasDefined(INCLUDE_RUNTIME) && operation.get(INCLUDE_RUNTIME).asBoolean();
+        } else if (COMPOSITE.equals(name) && operation.hasDefined(STEPS) && isProjection(operation.get(STEPS))) {
+            address = operation.get(STEPS).get(0).get(ADDRESS);
+            runtime = true;
+        } else {
+            return null;
+        }
+
+        List<Property> segments = address.isDefined() ? address.asPropertyList() : null;
+        for (Policy policy : policies) {
+            if (policy.matches(segments)) {
+                return runtime ? policy.runtime : policy.config;
+            }
+        }
+        return null;
+    }
+
+    private boolean isProjection(final ModelNode steps) {
+        for (ModelNode step : steps.asList()) {
+            if (!READ_ATTRIBUTE_OPERATION.equals(step.get(OP).asString())) {
+                return false;
+            }
+        }
+        return !steps.asList().isEmpty();
+    }
+
+
+    private static final class Policy {
+
+        final List<Property> pattern;
+        final ExpiringCache<ModelNode, ModelNode> runtime;
+        final ExpiringCache<ModelNode, ModelNode> config;
+
+        Policy(final List<Property> pattern, final ExpiringCache<ModelNode, ModelNode> runtime,
+                final ExpiringCache<ModelNode, ModelNode> config) {
+            this.pattern = pattern;
+            this.runtime = runtime;
+            this.config = config;
+        }
+
+        boolean matches(final List<Property> address) {
+            int length = address != null ? address.size() : 0;
+            if (length != pattern.size()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                Property segment = address.get(i);
+                Property expected = pattern.get(i);
+                if (!expected.getName().equals(segment.getName())) {
+                    return false;
+                }
+                String value = expected.getValue().asString();
+                if (!WILDCARD.equals(value) && !value.equals(segment.getValue().asString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
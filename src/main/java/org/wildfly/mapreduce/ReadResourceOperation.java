@@ -23,11 +23,23 @@ package org.wildfly.mapreduce;
 
 import static org.jboss.as.controller.client.helpers.ClientConstants.*;
 import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+import static org.wildfly.mapreduce.MapReduceConstants.ATTRIBUTES_ONLY;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.jboss.dmr.ModelNode;
 
 /**
  * Holds the fully qualified, resolved address an the related {@code read-resource} operation.
+ * <p/>
+ * If only some attributes are of interest and runtime attributes are included, the resource is not read using {@code
+ * read-resource}, but using a {@code composite} operation with one {@code read-attribute} step per attribute. If
+ * runtime attributes are excluded, the projection is read using {@code read-resource} with {@code
+ * include-runtime=false} and {@code attributes-only=true}, since {@code read-attribute} always returns runtime
+ * attributes. In both cases use {@link #toResourceResponse(ModelNode)} to turn the response into a response which
+ * looks like the response of a {@code read-resource} operation and contains the projected attributes only.
  *
  * @author Harald Pehl
  */
@@ -35,13 +47,78 @@ final class ReadResourceOperation {
 
     final ModelNode address;
     final ModelNode operation;
+    private final List<String> attributes;
+    private final boolean composite;
 
     ReadResourceOperation(final ModelNode address) {
+        this(address, true);
+    }
+
+    ReadResourceOperation(final ModelNode address, final boolean includeRuntime) {
         this.address = address;
+        this.attributes = null;
+        this.composite = false;
 
         operation = new ModelNode();
         operation.get(ADDRESS).set(address);
         operation.get(OP).set(READ_RESOURCE_OPERATION);
-        operation.get(INCLUDE_RUNTIME).set(true);
+        operation.get(INCLUDE_RUNTIME).set(includeRuntime);
+    }
+
+    ReadResourceOperation(final ModelNode address, final Collection<String> attributes, final boolean includeRuntime) {
+        this.address = address;
+        this.attributes = new ArrayList<>(attributes);
+        this.composite = includeRuntime;
+
+        operation = new ModelNode();
+        if (composite) {
+            operation.get(ADDRESS).setEmptyList();
+            operation.get(OP).set(COMPOSITE);
+            for (String attribute : attributes) {
+                ModelNode step = new ModelNode();
+                step.get(ADDRESS).set(address);
+                step.get(OP).set(READ_ATTRIBUTE_OPERATION);
+                step.get(NAME).set(attribute);
+                operation.get(STEPS).add(step);
+            }
+        } else {
+            operation.get(ADDRESS).set(address);
+            operation.get(OP).set(READ_RESOURCE_OPERATION);
+            operation.get(INCLUDE_RUNTIME).set(false);
+            operation.get(ATTRIBUTES_ONLY).set(true);
+        }
+    }
+
+    /**
+     * @return {@code true} if the attributes are read using a {@code composite} operation of {@code read-attribute}
+     * steps. Such an operation fails as a whole if one attribute is unknown.
+     */
+    boolean isComposite() {
+        return composite;
+    }
+
+    /**
+     * Turns the response of the {@code read-attribute} steps or of the {@code attributes-only} read into a response
+     * with the projected attribute values as result. Attributes missing in the {@code attributes-only} response (e.g.
+     * runtime attributes) are left out like in a plain {@code read-resource} response. Failed responses are returned
+     * as is.
+     */
+    ModelNode toResourceResponse(final ModelNode response) {
+        if (attributes == null || !ModelNodeUtils.wasSuccessful(response)) {
+            return response;
+        }
+        ModelNode resource = new ModelNode();
+        resource.get(OUTCOME).set(SUCCESS);
+        resource.get(RESULT).setEmptyObject();
+        ModelNode result = response.get(RESULT);
+        for (int i = 0; i < attributes.size(); i++) {
+            String attribute = attributes.get(i);
+            if (composite) {
+                resource.get(RESULT, attribute).set(result.get("step-" + (i + 1), RESULT));
+            } else if (result.has(attribute)) {
+                resource.get(RESULT, attribute).set(result.get(attribute));
+            }
+        }
+        return resource;
     }
 }
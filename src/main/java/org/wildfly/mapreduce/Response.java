@@ -29,6 +29,10 @@ import org.jboss.dmr.ModelNode;
 
 /**
  * Result of one operation in the context of a map / reduce operation
+ * <p/>
+ * A response prepared from a node of the address trie doesn't keep its address: The address is built whenever it's
+ * needed (e.g. for the read operation and the final result) and dropped afterwards, so the resolved responses hold the
+ * shared trie nodes only.
  *
  * @author Harald Pehl
  */
@@ -36,11 +40,22 @@ final class Response {
 
     private ModelNode outcome;
     private ModelNode failure;
-    final ModelNode address;
+    private final AddressNode node;
+    private final ModelNode address;
     ModelNode result;
 
     static Response prepare(final ModelNode address) {
-        Response response = new Response(address);
+        return prepare(new Response(null, address));
+    }
+
+    /**
+     * Prepares a response whose address is built from the trie node whenever it's needed.
+     */
+    static Response prepare(final AddressNode node) {
+        return prepare(new Response(node, null));
+    }
+
+    private static Response prepare(final Response response) {
         response.outcome = new ModelNode(); // undefined
         response.result = new ModelNode(); // undefined
         response.failure = new ModelNode(); // undefined
@@ -48,15 +63,31 @@ final class Response {
     }
 
     static Response failed(final ModelNode address, final String failure) {
-        Response response = new Response(address);
+        Response response = new Response(null, address);
         response.makeFailed(failure);
         return response;
     }
 
-    private Response(final ModelNode address) {
+    private Response(final AddressNode node, final ModelNode address) {
+        this.node = node;
         this.address = address;
     }
 
+    /**
+     * @return the address of this response. If the response was prepared from a trie node, the address is a new model
+     * node built on each call.
+     */
+    ModelNode address() {
+        return address != null ? address : node.asModelNode();
+    }
+
+    /**
+     * @return a new prepared response for the same address, which refers to the same trie node if there is one
+     */
+    Response prepareCopy() {
+        return prepare(new Response(node, address));
+    }
+
     boolean isFailed() {
         return failure.isDefined();
     }
@@ -74,7 +105,7 @@ final class Response {
 
     ModelNode asModelNode() {
         ModelNode node = new ModelNode();
-        node.get(ADDRESS_TEMPLATE).set(address);
+        node.get(ADDRESS_TEMPLATE).set(address());
         node.get(OUTCOME).set(outcome);
         if (isFailed()) {
             node.get(FAILURE_DESCRIPTION).set(failure);
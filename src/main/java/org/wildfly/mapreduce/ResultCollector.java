@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Collects the responses of one operation in the order of the resolved addresses or folds them into the groups or
+ * the aggregation of the query.
+ *
+ * @author Harald Pehl
+ */
+final class ResultCollector implements Collector {
+
+    private final Query query;
+    private final MapReduceMetrics metrics;
+    private final Profile profile;
+    private final SortedMap<Integer, Response> responses;
+    private int successful;
+    private int failed;
+
+    ResultCollector(final Query query, final MapReduceMetrics metrics, final Profile profile) {
+        this.query = query;
+        this.metrics = metrics;
+        this.profile = profile;
+        this.responses = new TreeMap<>();
+    }
+
+    @Override
+    public synchronized void collect(final int index, final Response response) {
+        if (response.isFailed()) {
+            failed++;
+        } else {
+            successful++;
+        }
+        if (!query.aggregate(response)) {
+            responses.put(index, response);
+        }
+    }
+
+    synchronized ModelNode result() {
+        long start = System.nanoTime();
+        ModelNode result = new ModelNode();
+        result.get(OUTCOME).set(failed > 0 && successful == 0 ? FAILED : SUCCESS);
+        if (query.isAggregate()) {
+            query.aggregateResult(result, failed);
+        } else {
+            ModelNode composite = new ModelNode().setEmptyList();
+            for (Response response : responses.values()) {
+                composite.add(response.asModelNode());
+            }
+            result.get(RESULT).set(composite);
+        }
+        long nanos = System.nanoTime() - start;
+        metrics.result.record(nanos);
+        profile.result(nanos);
+        metrics.countResult(result.get(RESULT));
+        if (profile.isEnabled()) {
+            result.get(PROFILE).set(profile.asModelNode());
+        }
+        return result;
+    }
+}
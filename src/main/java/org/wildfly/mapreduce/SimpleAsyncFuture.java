@@ -0,0 +1,254 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * An {@link AsyncFuture} which is completed using {@link #setResult(Object)}, {@link #setFailed(Throwable)} or
+ * {@link #setCancelled()}. Unlike {@link org.jboss.threads.AsyncFutureTask} it's built on plain JDK primitives (the
+ * monitor of the future and a list of listeners), so it doesn't depend on {@code JBossExecutors}, which can't be
+ * initialized on JDK 9+ without opening {@code java.lang}.
+ * <p/>
+ * The listeners are called in the thread which completes the future. Listeners added after the future has been
+ * completed are called right away in the calling thread.
+ *
+ * @author Harald Pehl
+ */
+abstract class SimpleAsyncFuture<T> implements AsyncFuture<T> {
+
+    private Status status = Status.WAITING; // guarded by this
+    private T result; // guarded by this
+    private Throwable failure; // guarded by this
+    private List<Registration<? super T, ?>> listeners = new ArrayList<>(); // guarded by this, null once done
+
+    /**
+     * @return {@code true} if the future has been completed by this call, {@code false} if it was already done
+     */
+    boolean setResult(final T result) {
+        return done(Status.COMPLETE, result, null);
+    }
+
+    /**
+     * @return {@code true} if the future has been completed by this call, {@code false} if it was already done
+     */
+    boolean setFailed(final Throwable failure) {
+        return done(Status.FAILED, null, failure);
+    }
+
+    /**
+     * @return {@code true} if the future has been cancelled by this call, {@code false} if it was already done
+     */
+    boolean setCancelled() {
+        return done(Status.CANCELLED, null, null);
+    }
+
+    private boolean done(final Status status, final T result, final Throwable failure) {
+        List<Registration<? super T, ?>> notify;
+        synchronized (this) {
+            if (this.status != Status.WAITING) {
+                return false;
+            }
+            this.status = status;
+            this.result = result;
+            this.failure = failure;
+            notify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Registration<? super T, ?> registration : notify) {
+            registration.notify(this);
+        }
+        return true;
+    }
+
+    @Override
+    public <A> void addListener(final Listener<? super T, A> listener, final A attachment) {
+        Registration<? super T, A> registration = new Registration<>(listener, attachment);
+        synchronized (this) {
+            if (status == Status.WAITING) {
+                listeners.add(registration);
+                return;
+            }
+        }
+        registration.notify(this);
+    }
+
+    @Override
+    public boolean cancel(final boolean interruptionDesired) {
+        asyncCancel(interruptionDesired);
+        return awaitUninterruptibly() == Status.CANCELLED;
+    }
+
+    @Override
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return status == Status.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return status != Status.WAITING;
+    }
+
+    @Override
+    public synchronized Status await() throws InterruptedException {
+        while (status == Status.WAITING) {
+            wait();
+        }
+        return status;
+    }
+
+    @Override
+    public synchronized Status await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (status == Status.WAITING && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return status;
+    }
+
+    @Override
+    public Status awaitUninterruptibly() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public Status awaitUninterruptibly(final long timeout, final TimeUnit unit) {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return await(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return report(await());
+    }
+
+    @Override
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        Status status = await(timeout, unit);
+        if (status == Status.WAITING) {
+            throw new TimeoutException();
+        }
+        return report(status);
+    }
+
+    @Override
+    public T getUninterruptibly() throws CancellationException, ExecutionException {
+        return report(awaitUninterruptibly());
+    }
+
+    @Override
+    public T getUninterruptibly(final long timeout, final TimeUnit unit) throws CancellationException,
+            ExecutionException, TimeoutException {
+        Status status = awaitUninterruptibly(timeout, unit);
+        if (status == Status.WAITING) {
+            throw new TimeoutException();
+        }
+        return report(status);
+    }
+
+    private synchronized T report(final Status status) throws ExecutionException {
+        switch (status) {
+            case COMPLETE:
+                return result;
+            case FAILED:
+                throw new ExecutionException(failure);
+            case CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new IllegalStateException("Future is not done");
+        }
+    }
+
+    private synchronized Throwable failure() {
+        return failure;
+    }
+
+
+    private static final class Registration<T, A> {
+
+        private final Listener<T, A> listener;
+        private final A attachment;
+
+        Registration(final Listener<T, A> listener, final A attachment) {
+            this.listener = listener;
+            this.attachment = attachment;
+        }
+
+        void notify(final SimpleAsyncFuture<? extends T> future) {
+            switch (future.getStatus()) {
+                case COMPLETE:
+                    listener.handleComplete(future, attachment);
+                    break;
+                case FAILED:
+                    listener.handleFailed(future, future.failure(), attachment);
+                    break;
+                case CANCELLED:
+                    listener.handleCancelled(future, attachment);
+                    break;
+            }
+        }
+    }
+}
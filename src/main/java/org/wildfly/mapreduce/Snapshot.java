@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.RESULT;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+
+/**
+ * The content hashes of the results of a map / reduce operation keyed by the address of the results. The hash is a
+ * 64 bit FNV-1a hash of the binary DMR encoding of the result (including its {@code outcome} and {@code
+ * failure-description}). Two snapshots are compared using {@link #diff(Snapshot)}.
+ * <p/>
+ * The {@link #version()} of a snapshot is a 64 bit FNV-1a digest of all addresses and their hashes. Snapshots with
+ * the same results have the same version. Use {@link #withoutResults()} to keep a snapshot which only serves as the
+ * previous snapshot of a diff.
+ * <p/>
+ * Snapshots are immutable.
+ *
+ * @author Harald Pehl
+ */
+final class Snapshot {
+
+    static final Snapshot EMPTY = new Snapshot(new LinkedHashMap<ModelNode, Long>(),
+            new LinkedHashMap<ModelNode, ModelNode>());
+
+    /**
+     * @param mapReduceResult the result of a map / reduce operation with a list of single results
+     *
+     * @return the snapshot of the single results or {@code null} if the result doesn't contain a list of single
+     * results (e.g. because the operation failed as a whole)
+     */
+    static Snapshot of(final ModelNode mapReduceResult) {
+        if (!mapReduceResult.hasDefined(RESULT) || mapReduceResult.get(RESULT).getType() != ModelType.LIST) {
+            return null;
+        }
+        Map<ModelNode, Long> hashes = new LinkedHashMap<>();
+        Map<ModelNode, ModelNode> results = new LinkedHashMap<>();
+        for (ModelNode result : mapReduceResult.get(RESULT).asList()) {
+            // the fully qualified address of a single result
+            hashes.put(result.get(ADDRESS_TEMPLATE), hash(result));
+            results.put(result.get(ADDRESS_TEMPLATE), result);
+        }
+        return new Snapshot(hashes, results);
+    }
+
+    static long hash(final ModelNode node) {
+        HashingOutputStream out = new HashingOutputStream();
+        try {
+            node.writeExternal(new DataOutputStream(out));
+        } catch (IOException e) {
+            // not thrown by our stream
+        }
+        return out.hash;
+    }
+
+    private final Map<ModelNode, Long> hashes;
+    private final Map<ModelNode, ModelNode> results;
+
+    private Snapshot(final Map<ModelNode, Long> hashes, final Map<ModelNode, ModelNode> results) {
+        this.hashes = hashes;
+        this.results = results;
+    }
+
+    /**
+     * @return the digest of the addresses and their hashes as 16 hex digits
+     */
+    String version() {
+        HashingOutputStream out = new HashingOutputStream();
+        try {
+            DataOutputStream data = new DataOutputStream(out);
+            for (Map.Entry<ModelNode, Long> entry : hashes.entrySet()) {
+                entry.getKey().writeExternal(data);
+                data.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            // not thrown by our stream
+        }
+        return String.format("%016x", out.hash);
+    }
+
+    /**
+     * @return a snapshot with the same hashes, but without the results
+     */
+    Snapshot withoutResults() {
+        return new Snapshot(hashes, new LinkedHashMap<ModelNode, ModelNode>());
+    }
+
+    /**
+     * @return the results which were added or changed since the previous snapshot in the order of this snapshot
+     */
+    ModelNode changedSince(final Snapshot previous) {
+        ModelNode changed = new ModelNode().setEmptyList();
+        for (Map.Entry<ModelNode, Long> entry : hashes.entrySet()) {
+            if (!entry.getValue().equals(previous.hashes.get(entry.getKey()))) {
+                changed.add(results.get(entry.getKey()));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the addresses of the previous snapshot which are not part of this snapshot
+     */
+    ModelNode removedSince(final Snapshot previous) {
+        ModelNode removed = new ModelNode().setEmptyList();
+        for (ModelNode address : previous.hashes.keySet()) {
+            if (!hashes.containsKey(address)) {
+                removed.add(address);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the results which were added or changed since the previous snapshot as lists {@code added} and {@code
+     * changed} and the addresses of the results which have been removed as list {@code removed}
+     */
+    ModelNode diff(final Snapshot previous) {
+        ModelNode diff = new ModelNode();
+        diff.get(ADDED).setEmptyList();
+        diff.get(CHANGED).setEmptyList();
+        for (ModelNode result : changedSince(previous).asList()) {
+            boolean added = !previous.hashes.containsKey(result.get(ADDRESS_TEMPLATE));
+            diff.get(added ? ADDED : CHANGED).add(result);
+        }
+        diff.get(REMOVED).set(removedSince(previous));
+        return diff;
+    }
+
+    /**
+     * @return {@code true} if the diff contains no added, changed or removed results
+     */
+    static boolean isEmpty(final ModelNode diff) {
+        return diff.get(ADDED).asList().isEmpty() && diff.get(CHANGED).asList().isEmpty() && diff.get(REMOVED)
+                .asList().isEmpty();
+    }
+
+
+    private static final class HashingOutputStream extends OutputStream {
+
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        long hash = FNV_OFFSET_BASIS;
+
+        @Override
+        public void write(final int b) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+    }
+}
@@ -3,19 +3,25 @@ package org.wildfly.mapreduce;
 import static org.jboss.as.controller.client.helpers.ClientConstants.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class AddressResolverTest {
 
@@ -37,9 +43,9 @@ public class AddressResolverTest {
 
         List<Response> resolved = resolver.resolve(templateFor("host", "master", "server-config", "*"));
         assertEquals(3, resolved.size());
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address);
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server1"), resolved.get(1).address);
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server2"), resolved.get(2).address);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server1"), resolved.get(1).address());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server2"), resolved.get(2).address());
     }
 
     @Test
@@ -50,12 +56,76 @@ public class AddressResolverTest {
 
         List<Response> resolved = resolver.resolve(templateFor("host", "*", "server-config", "*"));
         assertEquals(6, resolved.size());
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address);
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server1"), resolved.get(1).address);
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server2"), resolved.get(2).address);
-        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server0"), resolved.get(3).address);
-        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server1"), resolved.get(4).address);
-        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server2"), resolved.get(5).address);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server1"), resolved.get(1).address());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server2"), resolved.get(2).address());
+        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server0"), resolved.get(3).address());
+        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server1"), resolved.get(4).address());
+        assertEquals(new ModelNode().add("host", "slave").add("server-config", "server2"), resolved.get(5).address());
+    }
+
+    @Test
+    public void resolveLevelInOneComposite() throws IOException {
+        when(client.execute(any(ModelNode.class))).thenAnswer(new Answer<ModelNode>() {
+            @Override
+            public ModelNode answer(final InvocationOnMock invocation) throws Throwable {
+                ModelNode op = (ModelNode) invocation.getArguments()[0];
+                if (COMPOSITE.equals(op.get(OP).asString())) {
+                    ModelNode response = new ModelNode();
+                    response.get(OUTCOME).set(SUCCESS);
+                    List<ModelNode> steps = op.get(STEPS).asList();
+                    for (int i = 0; i < steps.size(); i++) {
+                        response.get(RESULT, "step-" + (i + 1)).set(listResponse("server0", "server1"));
+                    }
+                    return response;
+                }
+                return listResponse("master", "slave0", "slave1");
+            }
+        });
+        resolver = new AddressResolver(new OperationExecutor(client, null, 10), null);
+
+        List<Response> resolved = resolver.resolve(templateFor("host", "*", "server-config", "*"));
+        assertEquals(6, resolved.size());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address());
+        assertEquals(new ModelNode().add("host", "slave1").add("server-config", "server1"), resolved.get(5).address());
+        // one read-children-names for the hosts and one composite for the server configs of all hosts
+        verify(client, times(2)).execute(any(ModelNode.class));
+    }
+
+    @Test
+    public void resolveCached() throws IOException {
+        when(client.execute(argThat(new ChildTypeMatcher("host")))).thenReturn(listResponse("master", "slave"));
+        when(client.execute(argThat(new ChildTypeMatcher("server-config"))))
+                .thenReturn(listResponse("server0", "server1", "server2"));
+        ExpiringCache<ModelNode, List<String>> cache = new ExpiringCache<>(100, 1, TimeUnit.MINUTES);
+        resolver = new AddressResolver(new OperationExecutor(client, null, 1), cache);
+
+        List<Response> first = resolver.resolve(templateFor("host", "*", "server-config", "*"));
+        List<Response> second = resolver.resolve(templateFor("host", "*", "server-config", "*"));
+        List<Response> master = resolver.resolve(templateFor("host", "master", "server-config", "*"));
+        assertEquals(6, first.size());
+        assertEquals(6, second.size());
+        assertEquals(3, master.size());
+        assertEquals(first.get(5).address(), second.get(5).address());
+
+        // the first run only
+        verify(client, times(3)).execute(any(ModelNode.class));
+        ModelNode statistics = cache.statistics();
+        assertEquals(3, statistics.get("size").asInt());
+        assertEquals(3, statistics.get("misses").asInt());
+        assertEquals(4, statistics.get("hits").asInt());
+    }
+
+    @Test
+    public void resolveInvalidated() throws IOException {
+        when(client.execute(any(ModelNode.class))).thenReturn(listResponse("server0", "server1", "server2"));
+        ExpiringCache<ModelNode, List<String>> cache = new ExpiringCache<>(100, 1, TimeUnit.MINUTES);
+        resolver = new AddressResolver(new OperationExecutor(client, null, 1), cache);
+
+        resolver.resolve(templateFor("host", "master", "server-config", "*"));
+        cache.invalidate();
+        resolver.resolve(templateFor("host", "master", "server-config", "*"));
+        verify(client, times(2)).execute(any(ModelNode.class));
     }
 
 
@@ -69,7 +139,20 @@ public class AddressResolverTest {
 
         List<Response> resolved = resolver.resolve(templateFor("host", "master", "server-config", "server0").resolve());
         assertEquals(1, resolved.size());
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"), resolved.get(0).address());
+    }
+
+    @Test
+    public void resolveFailedLevel() throws IOException {
+        when(client.execute(argThat(new ChildTypeMatcher("host")))).thenReturn(listResponse("master", "slave"));
+        when(client.execute(argThat(new ChildTypeMatcher("server-config"))))
+                .thenReturn(ModelNodeUtils.failure("no server configs"));
+
+        List<Response> resolved = resolver.resolve(templateFor("host", "*", "server-config", "*"));
+        assertEquals(2, resolved.size());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "*"), resolved.get(0).address());
+        assertTrue(resolved.get(0).isFailed());
+        assertTrue(resolved.get(1).isFailed());
     }
 
     @Test
@@ -77,7 +160,7 @@ public class AddressResolverTest {
         ModelNode emptyAddress = new ModelNode().setEmptyList();
         List<Response> resolved = resolver.resolve(new AddressTemplate(emptyAddress));
         assertEquals(1, resolved.size());
-        assertSame(emptyAddress, resolved.get(0).address);
+        assertSame(emptyAddress, resolved.get(0).address());
     }
 
 
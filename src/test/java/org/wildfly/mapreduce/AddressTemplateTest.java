@@ -85,28 +85,53 @@ public class AddressTemplateTest {
     public void resolveSimple() {
         ModelNode template = new ModelNode().add("host", "*").add("server-config", "*");
         AddressTemplate resolved = new AddressTemplate(template).resolve("master", "server-one");
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.underlying);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.address());
     }
 
     @Test
     public void resolveNested() {
         ModelNode template = new ModelNode().add("host", "master").add("server-config", "*");
         AddressTemplate resolved = new AddressTemplate(template).resolve("server-one");
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.underlying);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.address());
     }
 
     @Test
     public void resolveMoreWildcards() {
         ModelNode template = new ModelNode().add("host", "*").add("server-config", "*");
         AddressTemplate resolved = new AddressTemplate(template).resolve("master");
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "*"), resolved.underlying);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "*"), resolved.address());
     }
 
     @Test
     public void resolveMoreValues() {
         ModelNode template = new ModelNode().add("host", "*").add("server-config", "*");
         AddressTemplate resolved = new AddressTemplate(template).resolve("master", "server-one", "foo");
-        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.underlying);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server-one"), resolved.address());
+    }
+
+    @Test
+    public void resolveInnerWildcards() {
+        ModelNode template = new ModelNode().add("host", "*").add("server", "server-one").add("subsystem", "*");
+        AddressTemplate resolved = new AddressTemplate(template).resolve("master");
+        assertEquals("subsystem", resolved.firstWildcardType());
+        assertEquals(new ModelNode().add("host", "master").add("server", "server-one"), resolved.resolvedPart());
+
+        resolved = resolved.resolve("datasources");
+        assertTrue(resolved.isResolved());
+        assertEquals(new ModelNode().add("host", "master").add("server", "server-one").add("subsystem", "datasources"),
+                resolved.address());
+    }
+
+    @Test
+    public void resolveSharesPrefix() {
+        ModelNode template = new ModelNode().add("host", "*").add("server-config", "*");
+        AddressTemplate host = new AddressTemplate(template).resolve("master");
+        AddressTemplate server0 = host.resolve("server0");
+        AddressTemplate server1 = host.resolve("server1");
+        assertSame(host.prefix(), server0.prefix().parent());
+        assertSame(host.prefix(), server1.prefix().parent());
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server1"),
+                server1.prefix().asModelNode());
     }
 
     @Test
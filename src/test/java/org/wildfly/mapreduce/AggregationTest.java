@@ -0,0 +1,116 @@
+package org.wildfly.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Test;
+
+public class AggregationTest {
+
+    @Test
+    public void undefinedAggregate() {
+        assertNull(Aggregation.compile(new ModelNode()));
+    }
+
+    @Test
+    public void count() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("count", "*").add("count", "value"));
+        aggregation.accumulate(resource(1));
+        aggregation.accumulate(resource(2));
+        aggregation.accumulate(new ModelNode().setEmptyObject());
+
+        ModelNode result = aggregation.result();
+        assertEquals(3, result.get("count(*)").asLong());
+        assertEquals(2, result.get("count(value)").asLong());
+    }
+
+    @Test
+    public void integralFunctions() {
+        Aggregation aggregation = Aggregation.compile(
+                new ModelNode().add("sum", "value").add("min", "value").add("max", "value").add("avg", "value"));
+        aggregation.accumulate(resource(4));
+        aggregation.accumulate(resource(-2));
+        aggregation.accumulate(resource(10));
+
+        ModelNode result = aggregation.result();
+        assertEquals(12L, result.get("sum(value)").asLong());
+        assertEquals(-2L, result.get("min(value)").asLong());
+        assertEquals(10L, result.get("max(value)").asLong());
+        assertEquals(4.0, result.get("avg(value)").asDouble(), 0.0001);
+    }
+
+    @Test
+    public void sumOverflow() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("sum", "value"));
+        aggregation.accumulate(new ModelNode().set("value", Long.MAX_VALUE));
+        aggregation.accumulate(new ModelNode().set("value", Long.MAX_VALUE));
+        aggregation.accumulate(resource(2));
+        aggregation.accumulate(new ModelNode().set("value", BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(1)));
+
+        ModelNode result = aggregation.result();
+        assertEquals(4.0 * Long.MAX_VALUE + 2, result.get("sum(value)").asDouble(), 1e6);
+    }
+
+    @Test
+    public void floatingFunctions() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("sum", "value").add("max", "value"));
+        aggregation.accumulate(resource(1));
+        aggregation.accumulate(new ModelNode().set("value", 2.5));
+
+        ModelNode result = aggregation.result();
+        assertEquals(3.5, result.get("sum(value)").asDouble(), 0.0001);
+        assertEquals(2.5, result.get("max(value)").asDouble(), 0.0001);
+    }
+
+    @Test
+    public void nonNumericValues() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("sum", "value").add("avg", "value")
+                .add("count", "value"));
+        aggregation.accumulate(resource(4));
+        aggregation.accumulate(new ModelNode().set("value", "STARTED"));
+        aggregation.accumulate(resource(2));
+
+        ModelNode result = aggregation.result();
+        assertEquals(6L, result.get("sum(value)").asLong());
+        assertEquals(3.0, result.get("avg(value)").asDouble(), 0.0001);
+        assertEquals(3L, result.get("count(value)").asLong());
+        assertEquals(1L, result.get(Aggregation.NON_NUMERIC, "sum(value)").asLong());
+        assertEquals(1L, result.get(Aggregation.NON_NUMERIC, "avg(value)").asLong());
+        assertFalse(result.get(Aggregation.NON_NUMERIC).has("count(value)"));
+    }
+
+    @Test
+    public void distinct() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("distinct", "value"));
+        aggregation.accumulate(resource(1));
+        aggregation.accumulate(resource(2));
+        aggregation.accumulate(resource(1));
+
+        assertEquals(new ModelNode().add(1).add(2), aggregation.result().get("distinct(value)"));
+    }
+
+    @Test
+    public void noValues() {
+        Aggregation aggregation = Aggregation.compile(new ModelNode().add("min", "value").add("avg", "value"));
+        assertFalse(aggregation.result().get("min(value)").isDefined());
+        assertFalse(aggregation.result().get("avg(value)").isDefined());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFunction() {
+        Aggregation.compile(new ModelNode().add("median", "value"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wildcardSum() {
+        Aggregation.compile(new ModelNode().add("sum", "*"));
+    }
+
+    private ModelNode resource(int value) {
+        ModelNode resource = new ModelNode();
+        resource.get("value").set(value);
+        return resource;
+    }
+}
@@ -0,0 +1,55 @@
+package org.wildfly.mapreduce;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void hitAndMiss() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 1, TimeUnit.MINUTES);
+        assertNull(cache.get("foo"));
+        cache.put("foo", "bar");
+        assertEquals("bar", cache.get("foo"));
+
+        assertEquals(1, cache.statistics().get("hits").asInt());
+        assertEquals(1, cache.statistics().get("misses").asInt());
+    }
+
+    @Test
+    public void expired() throws InterruptedException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 1, TimeUnit.MILLISECONDS);
+        cache.put("foo", "bar");
+        Thread.sleep(10);
+        assertNull(cache.get("foo"));
+        assertEquals(0, cache.statistics().get("size").asInt());
+        assertEquals(1, cache.statistics().get("evictions").asInt());
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(2, 1, TimeUnit.MINUTES);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.statistics().get("evictions").asInt());
+    }
+
+    @Test
+    public void invalidate() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, 1, TimeUnit.MINUTES);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.invalidate();
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+}
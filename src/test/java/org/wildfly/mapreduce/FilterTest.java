@@ -0,0 +1,75 @@
+package org.wildfly.mapreduce;
+
+import static org.junit.Assert.*;
+
+import org.jboss.dmr.ModelNode;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilterTest {
+
+    ModelNode resource;
+    Response response;
+
+    @Before
+    public void setUp() {
+        resource = new ModelNode();
+        resource.get("driver-name").set("h2");
+        resource.get("enabled").set(true);
+        resource.get("jndi-names").add("java:/foo").add("java:/bar");
+        response = Response.prepare(new ModelNode().add("data-source", "foo"));
+    }
+
+    @Test
+    public void undefinedFilter() {
+        assertNull(Filter.compile(new ModelNode(), true));
+    }
+
+    @Test
+    public void conjunction() {
+        ModelNode filter = new ModelNode().add("driver-name", "h2").add("enabled", true);
+        assertTrue(Filter.compile(filter, true).matches(response, resource));
+
+        filter = new ModelNode().add("driver-name", "h2").add("enabled", false);
+        assertFalse(Filter.compile(filter, true).matches(response, resource));
+        assertFalse(response.isFailed());
+    }
+
+    @Test
+    public void disjunction() {
+        ModelNode filter = new ModelNode().add("driver-name", "postgres").add("enabled", true);
+        assertTrue(Filter.compile(filter, false).matches(response, resource));
+
+        filter = new ModelNode().add("driver-name", "postgres").add("driver-name", "mysql");
+        assertFalse(Filter.compile(filter, false).matches(response, resource));
+        assertFalse(response.isFailed());
+    }
+
+    @Test
+    public void undefinedAttribute() {
+        ModelNode filter = new ModelNode().add("foo", "bar");
+        assertFalse(Filter.compile(filter, true).matches(response, resource));
+        assertTrue(response.isFailed());
+        assertFalse(resource.has("foo"));
+    }
+
+    @Test
+    public void shortCircuit() {
+        // the undefined attribute is never evaluated
+        ModelNode filter = new ModelNode().add("enabled", false).add("foo", "bar");
+        assertFalse(Filter.compile(filter, true).matches(response, resource));
+        assertFalse(response.isFailed());
+
+        filter = new ModelNode().add("enabled", true).add("foo", "bar");
+        assertTrue(Filter.compile(filter, false).matches(response, resource));
+        assertFalse(response.isFailed());
+    }
+
+    @Test
+    public void simpleValuesFirst() {
+        ModelNode jndiNames = new ModelNode().add("java:/other");
+        ModelNode filter = new ModelNode().add("jndi-names", jndiNames).add("driver-name", "h2");
+        Filter compiled = Filter.compile(filter, true);
+        assertArrayEquals(new String[]{"driver-name", "jndi-names"}, compiled.attributeNames().toArray());
+    }
+}
@@ -0,0 +1,44 @@
+package org.wildfly.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.meanMicros());
+        assertEquals(0, histogram.percentileMicros(99));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(100, histogram.count());
+        assertEquals(10000, histogram.maxMicros());
+        assertEquals(199, histogram.meanMicros());
+        // 100us are in the bucket [64, 128)
+        assertEquals(128, histogram.percentileMicros(50));
+        assertEquals(128, histogram.percentileMicros(99));
+        assertEquals(10000, histogram.percentileMicros(100));
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxMicros());
+    }
+}
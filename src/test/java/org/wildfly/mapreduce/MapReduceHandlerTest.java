@@ -0,0 +1,588 @@
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MapReduceHandlerTest {
+
+    static final int SERVERS = 50;
+
+    MapReduceHandler handler;
+    Set<String> failingServers = new HashSet<>();
+    boolean wildcardReads;
+    List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        if (handler != null) {
+            handler.shutdown();
+        }
+    }
+
+
+    // ------------------------------------------------------ normal tests
+
+    @Test
+    public void sequential() throws IOException {
+        handler = new MapReduceHandler(serverClient(), 1);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertServersInOrder(response, SERVERS);
+    }
+
+    @Test
+    public void parallel() throws IOException {
+        handler = new MapReduceHandler(serverClient(), 8);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertServersInOrder(response, SERVERS);
+    }
+
+    @Test
+    public void parallelWithFilter() throws IOException {
+        handler = new MapReduceHandler(serverClient(), 8);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("group", "even");
+        ModelNode response = handler.execute(op);
+
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(SERVERS / 2, payload.size());
+        for (int i = 0; i < payload.size(); i++) {
+            assertEquals("server" + (i * 2), payload.get(i).get(RESULT, "name").asString());
+        }
+    }
+
+    @Test
+    public void batched() throws IOException {
+        ModelControllerClient client = serverClient();
+        handler = new MapReduceHandler(client, 1, 20);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertServersInOrder(response, SERVERS);
+        // one read-children-names and three composites (20 + 20 + 10 steps)
+        verify(client, times(4)).execute(any(ModelNode.class));
+    }
+
+    @Test
+    public void parallelBatched() throws IOException {
+        ModelControllerClient client = serverClient();
+        handler = new MapReduceHandler(client, 4, 7);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertServersInOrder(response, SERVERS);
+        verify(client, times(1 + 8)).execute(any(ModelNode.class));
+    }
+
+    @Test
+    public void batchedWithFailedStep() throws IOException {
+        failingServers.add("server3");
+        handler = new MapReduceHandler(serverClient(), 1, 20);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(SERVERS, payload.size());
+        for (int i = 0; i < SERVERS; i++) {
+            if (i == 3) {
+                assertEquals(FAILED, payload.get(i).get(OUTCOME).asString());
+                assertEquals("server3 not found", payload.get(i).get(FAILURE_DESCRIPTION).asString());
+            } else {
+                assertEquals("server" + i, payload.get(i).get(RESULT, "name").asString());
+            }
+        }
+    }
+
+    @Test
+    public void serverSideResolution() throws IOException {
+        wildcardReads = true;
+        ModelControllerClient client = serverClient();
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(SERVER_SIDE_RESOLUTION).set(true);
+        ModelNode response = handler.execute(op);
+        assertServersInOrder(response, SERVERS);
+        assertEquals(new ModelNode().add("host", "master").add("server-config", "server0"),
+                response.get(RESULT).asList().get(0).get(ADDRESS_TEMPLATE));
+        verify(client, times(1)).execute(any(ModelNode.class));
+        assertEquals(1, handler.metrics().getManagementOperations());
+    }
+
+    @Test
+    public void serverSideResolutionFallback() throws IOException {
+        wildcardReads = false;
+        ModelControllerClient client = serverClient();
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(SERVER_SIDE_RESOLUTION).set(true);
+        ModelNode response = handler.execute(op);
+        assertServersInOrder(response, SERVERS);
+        // failed wildcard read, read-children-names and one read-resource per server
+        verify(client, times(1 + 1 + SERVERS)).execute(any(ModelNode.class));
+    }
+
+    @Test
+    public void projection() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("group", "even");
+        op.get(REDUCE).add("name");
+        ModelNode response = handler.execute(op);
+
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(SERVERS / 2, payload.size());
+        for (int i = 0; i < payload.size(); i++) {
+            ModelNode result = payload.get(i).get(RESULT);
+            assertEquals(1, result.keys().size());
+            assertEquals("server" + (i * 2), result.get("name").asString());
+        }
+        assertFalse(executed.contains(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void projectionFallback() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(REDUCE).add("name").add("foo");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(FAILED, response.get(OUTCOME).asString());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(SERVERS, payload.size());
+        assertEquals("Reducing attributes [\"foo\"] not defined for this resource",
+                payload.get(0).get(FAILURE_DESCRIPTION).asString());
+        assertTrue(executed.contains(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void twoPhaseFilter() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(PREFILTER).set(true);
+        ModelNode response = handler.execute(op);
+
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(17, payload.size());
+        assertEquals(3, payload.get(0).get(RESULT).keys().size());
+        assertEquals(SERVERS, Collections.frequency(executed, READ_ATTRIBUTE_OPERATION));
+        assertEquals(17, Collections.frequency(executed, READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void singlePhaseFilter() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        ModelNode response = handler.execute(op);
+
+        assertEquals(17, response.get(RESULT).asList().size());
+        assertEquals(0, Collections.frequency(executed, READ_ATTRIBUTE_OPERATION));
+        assertEquals(SERVERS, Collections.frequency(executed, READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void twoPhaseFilterUnknownAttribute() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("foo", "bar");
+        op.get(PREFILTER).set(true);
+        ModelNode response = handler.execute(op);
+
+        assertEquals(FAILED, response.get(OUTCOME).asString());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(SERVERS, payload.size());
+        assertEquals("Filter attribute \"foo\" not defined for this resource",
+                payload.get(0).get(FAILURE_DESCRIPTION).asString());
+    }
+
+    @Test
+    public void streaming() throws IOException {
+        handler = new MapReduceHandler(serverClient(), 4, 5);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("group", "even");
+        CollectingListener listener = new CollectingListener();
+        handler.execute(op, listener);
+
+        assertEquals(SERVERS / 2, listener.results.size());
+        Set<String> names = new HashSet<>();
+        for (ModelNode result : listener.results) {
+            names.add(result.get(RESULT, "name").asString());
+        }
+        assertTrue(names.contains("server48"));
+        assertEquals(SUCCESS, listener.outcome.get(OUTCOME).asString());
+    }
+
+    @Test
+    public void streamingInvalidOperation() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        CollectingListener listener = new CollectingListener();
+        handler.execute(mapReduceOp("*", "master"), listener);
+
+        assertTrue(listener.results.isEmpty());
+        assertEquals(FAILED, listener.outcome.get(OUTCOME).asString());
+        assertTrue(listener.outcome.hasDefined(FAILURE_DESCRIPTION));
+    }
+
+    @Test
+    public void aggregate() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(AGGREGATE).add("count", "*").add("distinct", "group");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        ModelNode result = response.get(RESULT);
+        assertEquals(17, result.get("count(*)").asInt());
+        assertEquals(new ModelNode().add("even").add("odd"), result.get("distinct(group)"));
+        assertFalse(executed.contains(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void aggregateWithFailures() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+        failingServers.add("server1");
+        failingServers.add("server2");
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(AGGREGATE).add("count", "*");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(SERVERS - 2, response.get(RESULT, "count(*)").asInt());
+        assertTrue(response.get(PARTIAL).asBoolean());
+        assertEquals(2, response.get(FAILED_RESOURCES).asInt());
+    }
+
+    @Test
+    public void aggregateAndReduce() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(REDUCE).add("name");
+        op.get(AGGREGATE).add("count", "*");
+        ModelNode response = handler.execute(op);
+        assertEquals(FAILED, response.get(OUTCOME).asString());
+    }
+
+    @Test
+    public void groupByAttribute() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(GROUP_BY).set("group");
+        op.get(AGGREGATE).add("count", "*").add("count", "auto-start");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> groups = response.get(RESULT).asList();
+        assertEquals(2, groups.size());
+        assertEquals("even", groups.get(0).get("group").asString());
+        assertEquals(25, groups.get(0).get("count(*)").asInt());
+        assertEquals("odd", groups.get(1).get("group").asString());
+        assertEquals(25, groups.get(1).get("count(auto-start)").asInt());
+        assertFalse(executed.contains(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void groupByAddressSegment() throws IOException {
+        handler = new MapReduceHandler(serverClient());
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(GROUP_BY).set("host");
+        failingServers.add("server0");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> groups = response.get(RESULT).asList();
+        // the mock returns the same children for hosts and servers
+        assertEquals(SERVERS, groups.size());
+        assertEquals("server0", groups.get(0).get("host").asString());
+        assertEquals(16, groups.get(0).get("count(*)").asInt());
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        System.setProperty("map-reduce.jmx", "true");
+        System.setProperty("map-reduce.metrics.result-bytes", "true");
+        try {
+            handler = new MapReduceHandler(serverClient(), 1, 10);
+        } finally {
+            System.clearProperty("map-reduce.jmx");
+            System.clearProperty("map-reduce.metrics.result-bytes");
+        }
+        failingServers.add("server1");
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        handler.execute(op);
+
+        MapReduceMetricsMXBean metrics = handler.metrics();
+        assertEquals(1, metrics.getMapReduceOperations());
+        assertEquals(SERVERS, metrics.getResolvedAddresses());
+        assertEquals(1, metrics.getFailed());
+        assertEquals(SERVERS - 17 - 1, metrics.getFilteredOut());
+        assertEquals(1, metrics.getResolution().getCount());
+        assertEquals(1, metrics.getRead().getCount());
+        assertEquals(1, metrics.getResult().getCount());
+        assertTrue(metrics.getManagementOperations() > 0);
+        assertTrue(metrics.getResultBytes() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("org.wildfly.mapreduce:type=MapReduceHandler,*"), null);
+        boolean found = false;
+        for (ObjectName name : names) {
+            found |= Long.valueOf(1).equals(server.getAttribute(name, "MapReduceOperations"));
+        }
+        assertTrue(found);
+
+        // unregistered on shutdown
+        handler.shutdown();
+        handler = null;
+        assertTrue(server.queryNames(new ObjectName("org.wildfly.mapreduce:type=MapReduceHandler,*"), null)
+                .size() < names.size());
+    }
+
+    @Test
+    public void metricsNotPublishedByDefault() throws Exception {
+        handler = new MapReduceHandler(serverClient(), 1, 10);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("org.wildfly.mapreduce:type=MapReduceHandler,*"), null);
+
+        handler.execute(mapReduceOp("host", "master", "server-config", "*"));
+        assertEquals(1, handler.metrics().getMapReduceOperations());
+        assertEquals(0, handler.metrics().getResultBytes());
+        assertEquals(names, server.queryNames(new ObjectName("org.wildfly.mapreduce:type=MapReduceHandler,*"), null));
+    }
+
+    @Test
+    public void singleFlightFailure() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        ModelControllerClient client = mock(ModelControllerClient.class);
+        when(client.execute(any(ModelNode.class))).thenAnswer(new Answer<ModelNode>() {
+            @Override
+            public ModelNode answer(final InvocationOnMock invocation) throws Throwable {
+                if (calls.incrementAndGet() == 1) {
+                    entered.countDown();
+                    release.await();
+                    throw new AssertionError("Simulated error");
+                }
+                return ModelNodeUtils.failure("Simulated failure");
+            }
+        });
+        handler = new MapReduceHandler(client);
+
+        final ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Callable<ModelNode> call = new Callable<ModelNode>() {
+                @Override
+                public ModelNode call() {
+                    return handler.execute(op);
+                }
+            };
+            Future<ModelNode> leader = callers.submit(call);
+            entered.await();
+            Future<ModelNode> waiter = callers.submit(call);
+            while (handler.metrics().getCoalescedOperations() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                fail("Error of the leader not propagated");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            ModelNode response = waiter.get(5, TimeUnit.SECONDS);
+            assertEquals(FAILED, response.get(OUTCOME).asString());
+            assertTrue(response.get(FAILURE_DESCRIPTION).asString().contains("Simulated error"));
+        } finally {
+            callers.shutdownNow();
+        }
+
+        // the flight has been removed: the next call executes on its own
+        assertEquals(FAILED, handler.execute(op).get(OUTCOME).asString());
+        assertEquals(1, handler.metrics().getCoalescedOperations());
+        assertEquals(2, calls.get());
+    }
+
+
+    // ------------------------------------------------------ helper methods
+
+    private ModelNode mapReduceOp(String... address) {
+        ModelNode op = new ModelNode();
+        op.get(OP).set(MAP_REDUCE_OP);
+        for (int i = 0; i < address.length; i += 2) {
+            op.get(ADDRESS_TEMPLATE).add(address[i], address[i + 1]);
+        }
+        return op;
+    }
+
+    private void assertServersInOrder(ModelNode response, int expected) {
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(expected, payload.size());
+        for (int i = 0; i < expected; i++) {
+            assertEquals("server" + i, payload.get(i).get(RESULT, "name").asString());
+        }
+    }
+
+    /**
+     * Returns a client which knows {@value #SERVERS} server configs. Read resource operations are delayed randomly to
+     * shuffle the order in which concurrent operations complete. Composite operations behave like in WildFly: The
+     * first failed step fails the composite and the remaining steps are not executed.
+     */
+    private ModelControllerClient serverClient() throws IOException {
+        final Random random = new Random();
+        ModelControllerClient client = mock(ModelControllerClient.class);
+        when(client.execute(any(ModelNode.class))).thenAnswer(new Answer<ModelNode>() {
+            @Override
+            public ModelNode answer(final InvocationOnMock invocation) throws Throwable {
+                return execute((ModelNode) invocation.getArguments()[0], random);
+            }
+        });
+        return client;
+    }
+
+    private ModelNode execute(ModelNode op, Random random) throws InterruptedException {
+        String name = op.get(OP).asString();
+        executed.add(name);
+
+        ModelNode response = new ModelNode();
+        if (COMPOSITE.equals(name)) {
+            response.get(OUTCOME).set(SUCCESS);
+            List<ModelNode> steps = op.get(STEPS).asList();
+            for (int i = 0; i < steps.size(); i++) {
+                ModelNode stepResult = execute(steps.get(i), random);
+                response.get(RESULT, "step-" + (i + 1)).set(stepResult);
+                if (!ModelNodeUtils.wasSuccessful(stepResult)) {
+                    response.get(OUTCOME).set(FAILED);
+                    response.get(FAILURE_DESCRIPTION).set(stepResult.get(FAILURE_DESCRIPTION));
+                    break;
+                }
+            }
+
+        } else if (READ_CHILDREN_NAMES_OPERATION.equals(name)) {
+            response.get(OUTCOME).set(SUCCESS);
+            for (int i = 0; i < SERVERS; i++) {
+                response.get(RESULT).add("server" + i);
+            }
+
+        } else if (op.get(ADDRESS).asString().contains(WILDCARD)) {
+            if (!wildcardReads) {
+                return ModelNodeUtils.failure("Wildcards not supported");
+            }
+            response.get(OUTCOME).set(SUCCESS);
+            response.get(RESULT).setEmptyList();
+            for (int i = 0; i < SERVERS; i++) {
+                ModelNode entry = new ModelNode();
+                entry.get(ADDRESS).set(new ModelNode().add("host", "master").add("server-config", "server" + i));
+                entry.get(OUTCOME).set(SUCCESS);
+                entry.get(RESULT).set(resource("server" + i));
+                response.get(RESULT).add(entry);
+            }
+
+        } else {
+            List<Property> address = op.get(ADDRESS).asPropertyList();
+            String server = address.get(address.size() - 1).getValue().asString();
+            if (failingServers.contains(server)) {
+                return ModelNodeUtils.failure(server + " not found");
+            }
+            Thread.sleep(random.nextInt(5));
+            ModelNode resource = resource(server);
+            if (READ_ATTRIBUTE_OPERATION.equals(name)) {
+                String attribute = op.get(NAME).asString();
+                if (!resource.has(attribute)) {
+                    return ModelNodeUtils.failure("Unknown attribute " + attribute);
+                }
+                response.get(OUTCOME).set(SUCCESS);
+                response.get(RESULT).set(resource.get(attribute));
+            } else {
+                response.get(OUTCOME).set(SUCCESS);
+                response.get(RESULT).set(resource);
+            }
+        }
+        return response;
+    }
+
+    private ModelNode resource(String server) {
+        int index = Integer.parseInt(server.substring("server".length()));
+        ModelNode resource = new ModelNode();
+        resource.get("name").set(server);
+        resource.get("group").set(index % 2 == 0 ? "even" : "odd");
+        resource.get("auto-start").set(index % 3 == 0);
+        return resource;
+    }
+
+
+    static class CollectingListener implements MapReduceListener {
+
+        final List<ModelNode> results = new ArrayList<>();
+        ModelNode outcome;
+
+        @Override
+        public void onResult(final ModelNode result) {
+            assertNull(outcome);
+            results.add(result);
+        }
+
+        @Override
+        public void onComplete(final ModelNode outcome) {
+            this.outcome = outcome;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.wildfly.mapreduce.MapReduceConstants.ADDRESS;
+import static org.wildfly.mapreduce.MapReduceConstants.FAILED;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * An in-process client which answers {@code read-children-names}, {@code read-resource}, {@code read-attribute} and
+ * {@code composite} operations using a synthetic model tree. Each call (a composite counts as one call) is delayed by
+ * a random latency and each read fails with the given failure rate. Composite operations behave like in WildFly: The
+ * first failed step fails the composite and the remaining steps are not executed.
+ * <p/>
+ * Use {@link #domain(int, int)} to simulate a domain of arbitrary size or build your own tree using {@link
+ * Resource}.
+ */
+public class SimulatedClient implements ModelControllerClient {
+
+    /**
+     * Creates a domain with {@code hosts} hosts with {@code servers} server configs each. The server configs are
+     * distributed among the server groups {@code main-server-group} and {@code other-server-group}. Every third
+     * server config is started automatically. The attribute {@code status} of the server configs is a runtime
+     * attribute.
+     */
+    static SimulatedClient domain(final int hosts, final int servers) {
+        Resource root = new Resource();
+        root.child("server-group", "main-server-group").attribute("profile", "full");
+        root.child("server-group", "other-server-group").attribute("profile", "full-ha");
+        for (int i = 0; i < hosts; i++) {
+            String hostName = i == 0 ? "master" : "host" + i;
+            Resource host = root.child("host", hostName).attribute("name", hostName).attribute("master", i == 0);
+            for (int j = 0; j < servers; j++) {
+                String serverName = "server" + j;
+                host.child("server-config", serverName)
+                        .attribute("name", serverName)
+                        .attribute("group", j % 2 == 0 ? "main-server-group" : "other-server-group")
+                        .attribute("auto-start", j % 3 == 0)
+                        .attribute("socket-binding-port-offset", j * 100)
+                        .runtimeAttribute("status", j % 3 == 0 ? "STARTED" : "STOPPED");
+            }
+        }
+        return new SimulatedClient(root);
+    }
+
+    private final Resource root;
+    private final Random random;
+    private final ConcurrentMap<String, AtomicInteger> executed;
+    private final AtomicInteger concurrent;
+    private final AtomicInteger maxConcurrent;
+    private final ExecutorService asyncExecutor;
+    private volatile int minLatency;
+    private volatile int maxLatency;
+    private volatile double failureRate;
+    private volatile String slowHost;
+    private volatile int slowLatency;
+
+    SimulatedClient(final Resource root) {
+        this.root = root;
+        this.random = new Random(42);
+        this.executed = new ConcurrentHashMap<>();
+        this.concurrent = new AtomicInteger();
+        this.maxConcurrent = new AtomicInteger();
+        this.asyncExecutor = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Delays each call by a random number of milliseconds between {@code min} and {@code max} (inclusive).
+     */
+    SimulatedClient latency(final int min, final int max) {
+        this.minLatency = min;
+        this.maxLatency = max;
+        return this;
+    }
+
+    /**
+     * Delays each {@code read-resource} operation which addresses the given host (including composite operations
+     * with such a step) by {@code latency} additional milliseconds.
+     */
+    SimulatedClient slow(final String host, final int latency) {
+        this.slowHost = host;
+        this.slowLatency = latency;
+        return this;
+    }
+
+    /**
+     * Fails each read with the given probability between 0 and 1.
+     */
+    SimulatedClient failureRate(final double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * @return the number of executed operations with the given name including the steps of composite operations
+     */
+    int executed(final String operationName) {
+        AtomicInteger count = executed.get(operationName);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @return the maximum number of calls which have been executed at the same time
+     */
+    int maxConcurrent() {
+        return maxConcurrent.get();
+    }
+
+
+    // ------------------------------------------------------ client
+
+    @Override
+    public ModelNode execute(final ModelNode operation) throws IOException {
+        int current = concurrent.incrementAndGet();
+        for (int max = maxConcurrent.get(); current > max; max = maxConcurrent.get()) {
+            maxConcurrent.compareAndSet(max, current);
+        }
+        try {
+            int latency = maxLatency > 0 ? minLatency + random.nextInt(maxLatency - minLatency + 1) : 0;
+            if (slowHost != null && readsFrom(operation, slowHost)) {
+                latency += slowLatency;
+            }
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while executing " + operation.get(OP).asString());
+        } finally {
+            concurrent.decrementAndGet();
+        }
+        return dispatch(operation);
+    }
+
+    @Override
+    public ModelNode execute(final Operation operation) throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public ModelNode execute(final ModelNode operation, final OperationMessageHandler messageHandler)
+            throws IOException {
+        return execute(operation);
+    }
+
+    @Override
+    public ModelNode execute(final Operation operation, final OperationMessageHandler messageHandler)
+            throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(final ModelNode operation,
+            final OperationMessageHandler messageHandler) {
+        AsyncOperation future = new AsyncOperation(operation);
+        asyncExecutor.execute(future);
+        return future;
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(final Operation operation,
+            final OperationMessageHandler messageHandler) {
+        return executeAsync(operation.getOperation(), messageHandler);
+    }
+
+    @Override
+    public void close() {
+        asyncExecutor.shutdownNow();
+    }
+
+
+    private boolean readsFrom(final ModelNode operation, final String host) {
+        if (COMPOSITE.equals(operation.get(OP).asString())) {
+            for (ModelNode step : operation.get(STEPS).asList()) {
+                if (readsFrom(step, host)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (!READ_RESOURCE_OPERATION.equals(operation.get(OP).asString())) {
+            return false;
+        }
+        List<Property> address = operation.get(ADDRESS).isDefined() ? operation.get(ADDRESS).asPropertyList()
+                : Collections.<Property>emptyList();
+        return !address.isEmpty() && "host".equals(address.get(0).getName()) && host.equals(
+                address.get(0).getValue().asString());
+    }
+
+
+    // ------------------------------------------------------ model
+
+    private ModelNode dispatch(final ModelNode operation) {
+        String name = operation.get(OP).asString();
+        executed.putIfAbsent(name, new AtomicInteger());
+        executed.get(name).incrementAndGet();
+
+        if (COMPOSITE.equals(name)) {
+            return composite(operation.get(STEPS).asList());
+        }
+        Resource resource = root.find(operation.get(ADDRESS));
+        if (resource == null) {
+            return ModelNodeUtils.failure("Resource " + ModelNodeUtils.formatAddress(operation.get(ADDRESS)) +
+                    " not found");
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            return ModelNodeUtils.failure("Simulated failure of " + name + " for " +
+                    ModelNodeUtils.formatAddress(operation.get(ADDRESS)));
+        }
+
+        ModelNode response = new ModelNode();
+        switch (name) {
+            case READ_CHILDREN_NAMES_OPERATION:
+                response.get(RESULT).setEmptyList();
+                Map<String, Resource> children = resource.children.get(operation.get(CHILD_TYPE).asString());
+                if (children != null) {
+                    for (String child : children.keySet()) {
+                        response.get(RESULT).add(child);
+                    }
+                }
+                break;
+            case READ_RESOURCE_OPERATION:
+                response.get(RESULT).set(resource.asModelNode(
+                        !operation.hasDefined(INCLUDE_RUNTIME) || operation.get(INCLUDE_RUNTIME).asBoolean(),
+                        operation.hasDefined("attributes-only") && operation.get("attributes-only").asBoolean()));
+                break;
+            case READ_ATTRIBUTE_OPERATION:
+                String attribute = operation.get(NAME).asString();
+                if (!resource.attributes.has(attribute)) {
+                    return ModelNodeUtils.failure("Unknown attribute " + attribute);
+                }
+                response.get(RESULT).set(resource.attributes.get(attribute));
+                break;
+            default:
+                return ModelNodeUtils.failure("Operation " + name + " not supported");
+        }
+        response.get(OUTCOME).set(SUCCESS);
+        return response;
+    }
+
+    private ModelNode composite(final List<ModelNode> steps) {
+        ModelNode response = new ModelNode();
+        response.get(OUTCOME).set(SUCCESS);
+        for (int i = 0; i < steps.size(); i++) {
+            ModelNode stepResult = dispatch(steps.get(i));
+            response.get(RESULT, "step-" + (i + 1)).set(stepResult);
+            if (!ModelNodeUtils.wasSuccessful(stepResult)) {
+                response.get(OUTCOME).set(FAILED);
+                response.get(FAILURE_DESCRIPTION).set(stepResult.get(FAILURE_DESCRIPTION));
+                break;
+            }
+        }
+        return response;
+    }
+
+
+    /**
+     * A resource of the synthetic model tree with attributes and named children.
+     */
+    static final class Resource {
+
+        final ModelNode attributes = new ModelNode().setEmptyObject();
+        final Set<String> runtimeAttributes = new HashSet<>();
+        final Map<String, Map<String, Resource>> children = new LinkedHashMap<>();
+
+        /**
+         * Adds an attribute which is left out by {@code read-resource(include-runtime=false)}.
+         */
+        Resource runtimeAttribute(final String name, final Object value) {
+            runtimeAttributes.add(name);
+            return attribute(name, value);
+        }
+
+        Resource attribute(final String name, final Object value) {
+            if (value instanceof Boolean) {
+                attributes.get(name).set((Boolean) value);
+            } else if (value instanceof Integer) {
+                attributes.get(name).set((Integer) value);
+            } else if (value instanceof ModelNode) {
+                attributes.get(name).set((ModelNode) value);
+            } else {
+                attributes.get(name).set(String.valueOf(value));
+            }
+            return this;
+        }
+
+        /**
+         * @return the new child
+         */
+        Resource child(final String type, final String name) {
+            Map<String, Resource> named = children.get(type);
+            if (named == null) {
+                named = new LinkedHashMap<>();
+                children.put(type, named);
+            }
+            Resource child = new Resource();
+            named.put(name, child);
+            return child;
+        }
+
+        Resource find(final ModelNode address) {
+            Resource resource = this;
+            if (address.isDefined()) {
+                for (Property segment : address.asPropertyList()) {
+                    Map<String, Resource> named = resource.children.get(segment.getName());
+                    resource = named != null ? named.get(segment.getValue().asString()) : null;
+                    if (resource == null) {
+                        return null;
+                    }
+                }
+            }
+            return resource;
+        }
+
+        /**
+         * @return the attributes and the names of the children like a non-recursive {@code read-resource}
+         */
+        ModelNode asModelNode(final boolean includeRuntime, final boolean attributesOnly) {
+            ModelNode node = attributes.clone();
+            if (!includeRuntime) {
+                for (String attribute : runtimeAttributes) {
+                    node.remove(attribute);
+                }
+            }
+            if (attributesOnly) {
+                return node;
+            }
+            for (Map.Entry<String, Map<String, Resource>> entry : children.entrySet()) {
+                for (String name : entry.getValue().keySet()) {
+                    node.get(entry.getKey(), name);
+                }
+            }
+            return node;
+        }
+    }
+
+
+    private final class AsyncOperation extends SimpleAsyncFuture<ModelNode> implements Runnable {
+
+        private final ModelNode operation;
+
+        AsyncOperation(final ModelNode operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            if (getStatus() != Status.WAITING) {
+                // cancelled before it was started
+                return;
+            }
+            try {
+                setResult(execute(operation));
+            } catch (Throwable t) {
+                setFailed(t);
+            }
+        }
+
+        @Override
+        public void asyncCancel(final boolean interruptionDesired) {
+            setCancelled();
+        }
+    }
+}
@@ -0,0 +1,777 @@
+package org.wildfly.mapreduce;
+
+import static org.jboss.as.controller.client.helpers.ClientConstants.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.wildfly.mapreduce.MapReduceConstants.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs map / reduce operations against a simulated domain with 50 hosts and 500 server configs.
+ */
+public class SimulatedDomainTest {
+
+    static final int HOSTS = 50;
+    static final int SERVERS = 10;
+
+    SimulatedClient client;
+    MapReduceHandler handler;
+
+    @After
+    public void tearDown() {
+        if (handler != null) {
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    public void allServerConfigs() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "*", "server-config", "*"));
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(HOSTS * SERVERS, payload.size());
+        for (ModelNode node : payload) {
+            assertTrue(ModelNodeUtils.wasSuccessful(node));
+        }
+        assertEquals(1 + HOSTS, client.executed(READ_CHILDREN_NAMES_OPERATION));
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void resolveAddresses() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        AddressResolver resolver = new AddressResolver(client);
+
+        List<Response> responses = resolver.resolve(
+                new AddressTemplate(new ModelNode().add("host", "*").add("server-config", "*")));
+        assertEquals(HOSTS * SERVERS, responses.size());
+    }
+
+    @Test
+    public void groupByHost() {
+        client = SimulatedClient.domain(HOSTS, SERVERS).latency(0, 2);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(GROUP_BY).set("host");
+        op.get(AGGREGATE).add("count", "*").add("sum", "socket-binding-port-offset");
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> groups = response.get(RESULT).asList();
+        assertEquals(HOSTS, groups.size());
+        for (ModelNode group : groups) {
+            // server0, server3, server6 and server9
+            assertEquals(4, group.get("count(*)").asInt());
+            assertEquals(1800, group.get("sum(socket-binding-port-offset)").asInt());
+        }
+    }
+
+    @Test
+    public void countByHostResolvesOnly() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(GROUP_BY).set("host");
+        ModelNode response = handler.execute(op);
+        assertEquals(response, handler.executeAsync(op).get(10, TimeUnit.SECONDS));
+        assertEquals(response, handler.executeBatch(Arrays.asList(op)).get(0));
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(HOSTS, response.get(RESULT).asList().size());
+        assertEquals(SERVERS, response.get(RESULT).get(0).get("count(*)").asInt());
+        assertEquals(0, client.executed(READ_RESOURCE_OPERATION));
+        assertEquals(0, client.executed(READ_ATTRIBUTE_OPERATION));
+    }
+
+    @Test
+    public void groupByUndefinedAttribute() {
+        SimulatedClient.Resource root = new SimulatedClient.Resource();
+        SimulatedClient.Resource host = root.child("host", "master");
+        host.child("server-config", "server0").attribute("group", "");
+        host.child("server-config", "server1").attribute("group", "main-server-group");
+        host.child("server-config", "server2");
+        client = new SimulatedClient(root);
+        handler = new MapReduceHandler(client, 1, 1);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(GROUP_BY).set("group");
+        ModelNode response = handler.execute(op);
+
+        // the empty string and the undefined value are different groups
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> groups = response.get(RESULT).asList();
+        assertEquals(3, groups.size());
+        assertEquals("", groups.get(0).get("group").asString());
+        assertEquals("main-server-group", groups.get(1).get("group").asString());
+        assertFalse(groups.get(2).get("group").isDefined());
+        assertEquals(1, groups.get(2).get("count(*)").asInt());
+    }
+
+    @Test
+    public void failures() {
+        client = SimulatedClient.domain(HOSTS, SERVERS).failureRate(0.1);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode response = handler.execute(mapReduceOp("host", "*", "server-config", "*"));
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        int failed = 0;
+        for (ModelNode node : response.get(RESULT).asList()) {
+            if (!ModelNodeUtils.wasSuccessful(node)) {
+                failed++;
+            }
+        }
+        assertTrue(failed > 0);
+    }
+
+    @Test
+    public void async() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS).latency(0, 2);
+        handler = new MapReduceHandler(client, 1, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("group", "main-server-group");
+        AsyncFuture<ModelNode> future = handler.executeAsync(op);
+        ModelNode response = future.get(10, TimeUnit.SECONDS);
+
+        assertEquals(handler.execute(op), response);
+        assertEquals(HOSTS * SERVERS / 2, response.get(RESULT).asList().size());
+    }
+
+    @Test
+    public void asyncParallelism() throws Exception {
+        client = SimulatedClient.domain(5, 4).latency(5, 10);
+        handler = new MapReduceHandler(client, 2, 1);
+
+        ModelNode response = handler.executeAsync(mapReduceOp("host", "*", "server-config", "*"))
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(20, response.get(RESULT).asList().size());
+        assertTrue(client.maxConcurrent() <= 2);
+    }
+
+    @Test
+    public void asyncGroupBy() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 1, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(GROUP_BY).set("group");
+        ModelNode response = handler.executeAsync(op).get(10, TimeUnit.SECONDS);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        List<ModelNode> groups = response.get(RESULT).asList();
+        assertEquals(2, groups.size());
+        assertEquals(HOSTS * SERVERS / 2, groups.get(0).get("count(*)").asInt());
+    }
+
+    @Test
+    public void asyncInvalidOperation() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client);
+
+        ModelNode response = handler.executeAsync(new ModelNode()).get(10, TimeUnit.SECONDS);
+        assertEquals(FAILED, response.get(OUTCOME).asString());
+    }
+
+    @Test
+    public void asyncCancel() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS).latency(50, 50);
+        handler = new MapReduceHandler(client, 1, 1);
+
+        AsyncFuture<ModelNode> future = handler.executeAsync(mapReduceOp("host", "*", "server-config", "*"));
+        Thread.sleep(75);
+        assertTrue(future.cancel(true));
+        assertEquals(AsyncFuture.Status.CANCELLED, future.getStatus());
+
+        // in flight reads are cancelled, outstanding reads are skipped
+        Thread.sleep(200);
+        assertTrue(client.executed(READ_RESOURCE_OPERATION) < HOSTS * SERVERS);
+    }
+
+    @Test
+    public void profile() {
+        client = SimulatedClient.domain(HOSTS, SERVERS).latency(0, 2);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(REDUCE).add("name");
+        op.get(PROFILE).set(true);
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        ModelNode profile = response.get(PROFILE);
+        assertEquals(1 + HOSTS, profile.get(READ_CHILDREN_NAMES_OPERATION).asInt());
+        assertEquals(HOSTS * SERVERS, profile.get(READ_RESOURCE_OPERATION).asInt());
+        assertEquals(Profile.SLOWEST, profile.get("slowest").asList().size());
+        assertTrue(profile.get("slowest").get(0).hasDefined(ADDRESS));
+        assertTrue(profile.get("total-time").asLong() >= profile.get("phases", "read").asLong());
+        assertEquals(0, profile.get("resolution-cache", "hits").asInt());
+
+        assertFalse(handler.execute(mapReduceOp("host", "*", "server-config", "*")).has(PROFILE));
+    }
+
+    @Test
+    public void asyncProfile() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 1, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(PROFILE).set(true);
+        ModelNode response = handler.executeAsync(op).get(10, TimeUnit.SECONDS);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(1 + HOSTS, response.get(PROFILE, READ_CHILDREN_NAMES_OPERATION).asInt());
+        assertEquals(HOSTS * SERVERS, response.get(PROFILE, READ_RESOURCE_OPERATION).asInt());
+    }
+
+    @Test
+    public void timeout() {
+        client = SimulatedClient.domain(5, 4).slow("host2", 5000);
+        handler = new MapReduceHandler(client, 8, 1);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(TIMEOUT).set(500);
+        long start = System.currentTimeMillis();
+        ModelNode response = handler.execute(op);
+
+        assertTrue(System.currentTimeMillis() - start < 2500);
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertTrue(response.get(PARTIAL).asBoolean());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(20, payload.size());
+        int timedOut = 0;
+        for (ModelNode node : payload) {
+            if (!ModelNodeUtils.wasSuccessful(node)) {
+                assertEquals("host2", node.get(ADDRESS_TEMPLATE).asPropertyList().get(0).getValue().asString());
+                assertTrue(node.get(FAILURE_DESCRIPTION).asString().startsWith("Timeout"));
+                timedOut++;
+            }
+        }
+        assertEquals(4, timedOut);
+        assertEquals(4, handler.metrics().getFailed());
+    }
+
+    @Test
+    public void timeoutNotExpired() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(TIMEOUT).set(10000);
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertFalse(response.has(PARTIAL));
+        assertEquals(HOSTS * SERVERS, response.get(RESULT).asList().size());
+    }
+
+    @Test
+    public void timeoutDuringResolution() {
+        client = SimulatedClient.domain(5, 4).latency(1000, 1000);
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(TIMEOUT).set(200);
+        ModelNode response = handler.execute(op);
+
+        assertTrue(response.get(PARTIAL).asBoolean());
+        List<ModelNode> payload = response.get(RESULT).asList();
+        assertEquals(1, payload.size());
+        assertEquals(op.get(ADDRESS_TEMPLATE), payload.get(0).get(ADDRESS_TEMPLATE));
+        assertFalse(ModelNodeUtils.wasSuccessful(payload.get(0)));
+    }
+
+    @Test
+    public void streamingTimeout() {
+        client = SimulatedClient.domain(5, 4).slow("host2", 5000);
+        handler = new MapReduceHandler(client, 8, 1);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(TIMEOUT).set(500);
+        final List<ModelNode> results = new ArrayList<>();
+        final ModelNode[] outcome = new ModelNode[1];
+        handler.execute(op, new MapReduceListener() {
+            @Override
+            public void onResult(final ModelNode result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onComplete(final ModelNode result) {
+                outcome[0] = result;
+            }
+        });
+
+        assertEquals(20, results.size());
+        assertTrue(outcome[0].get(PARTIAL).asBoolean());
+    }
+
+    @Test
+    public void limit() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 5);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(LIMIT).set(20);
+        ModelNode response = handler.execute(op);
+
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(20, response.get(RESULT).asList().size());
+        assertTrue(response.hasDefined(CURSOR));
+        assertEquals(20, client.executed(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void pages() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 5);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        op.get(LIMIT).set(30);
+        Set<ModelNode> addresses = new HashSet<>();
+        int pages = 0;
+        ModelNode response = handler.execute(op);
+        while (true) {
+            pages++;
+            List<ModelNode> payload = response.get(RESULT).asList();
+            assertTrue(payload.size() <= 30);
+            for (ModelNode node : payload) {
+                assertTrue(node.get(RESULT, "auto-start").asBoolean());
+                assertTrue(addresses.add(node.get(ADDRESS_TEMPLATE)));
+            }
+            if (!response.hasDefined(CURSOR)) {
+                break;
+            }
+            op.get(CURSOR).set(response.get(CURSOR));
+            response = handler.execute(op);
+        }
+
+        // server0, server3, server6 and server9 of each host
+        assertEquals(HOSTS * 4, addresses.size());
+        assertEquals(7, pages);
+        assertEquals(1 + HOSTS, client.executed(READ_CHILDREN_NAMES_OPERATION));
+    }
+
+    @Test
+    public void asyncPages() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 1, 5);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(LIMIT).set(400);
+        ModelNode response = handler.executeAsync(op).get(10, TimeUnit.SECONDS);
+        assertEquals(400, response.get(RESULT).asList().size());
+
+        op.get(CURSOR).set(response.get(CURSOR));
+        response = handler.executeAsync(op).get(10, TimeUnit.SECONDS);
+        assertEquals(HOSTS * SERVERS - 400, response.get(RESULT).asList().size());
+        assertFalse(response.hasDefined(CURSOR));
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void unknownCursor() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(CURSOR).set("foo");
+        assertEquals(FAILED, handler.execute(op).get(OUTCOME).asString());
+    }
+
+    @Test
+    public void foreignCursor() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(LIMIT).set(10);
+        ModelNode cursor = handler.execute(op).get(CURSOR);
+
+        ModelNode other = mapReduceOp("host", "*", "server-config", "*");
+        other.get(FILTER).add("auto-start", true);
+        other.get(LIMIT).set(10);
+        other.get(CURSOR).set(cursor);
+        ModelNode response = handler.execute(other);
+        assertEquals(FAILED, response.get(OUTCOME).asString());
+        assertTrue(response.get(FAILURE_DESCRIPTION).asString().contains("does not belong"));
+
+        op.get(CURSOR).set(cursor);
+        assertEquals(SUCCESS, handler.execute(op).get(OUTCOME).asString());
+    }
+
+    @Test
+    public void batch() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode servers = mapReduceOp("host", "*", "server-config", "*");
+        ModelNode autoStart = mapReduceOp("host", "*", "server-config", "*");
+        autoStart.get(FILTER).add("auto-start", true);
+        autoStart.get(REDUCE).add("name");
+        ModelNode groups = mapReduceOp("host", "*", "server-config", "*");
+        groups.get(GROUP_BY).set("group");
+        ModelNode hosts = mapReduceOp("host", "*");
+        List<ModelNode> ops = Arrays.asList(servers, autoStart, groups, hosts, new ModelNode());
+        List<ModelNode> results = handler.executeBatch(ops);
+
+        // shared resolution and one read per resource
+        assertEquals(1 + HOSTS, client.executed(READ_CHILDREN_NAMES_OPERATION));
+        assertEquals(HOSTS * SERVERS + HOSTS, client.executed(READ_RESOURCE_OPERATION));
+
+        assertEquals(ops.size(), results.size());
+        assertEquals(FAILED, results.get(4).get(OUTCOME).asString());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(handler.execute(ops.get(i)), results.get(i));
+        }
+    }
+
+    @Test
+    public void batchIncludeRuntime() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+
+        ModelNode runtime = mapReduceOp("host", "*", "server-config", "*");
+        ModelNode config = mapReduceOp("host", "*", "server-config", "*");
+        config.get(INCLUDE_RUNTIME).set(false);
+        ModelNode otherConfig = mapReduceOp("host", "*", "server-config", "*");
+        otherConfig.get(INCLUDE_RUNTIME).set(false);
+        otherConfig.get(FILTER).add("auto-start", true);
+        List<ModelNode> results = handler.executeBatch(Arrays.asList(runtime, config, otherConfig));
+
+        // reads are shared between queries with the same include-runtime value only
+        assertEquals(2 * HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+        assertEquals(HOSTS * SERVERS, results.get(0).get(RESULT).asList().size());
+        assertEquals(HOSTS * SERVERS, results.get(1).get(RESULT).asList().size());
+        assertEquals(HOSTS * 4, results.get(2).get(RESULT).asList().size());
+    }
+
+    @Test
+    public void readCache() throws Exception {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+        handler.addReadCachePolicy(new ModelNode().add("host", "*").add("server-config", "*"), 60000, 0);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        ModelNode response = handler.execute(op);
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+
+        // repeated polling is answered from the cache
+        assertEquals(response, handler.execute(op));
+        assertEquals(response, handler.executeAsync(op).get(10, TimeUnit.SECONDS));
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+        ModelNode statistics = handler.readCacheStatistics();
+        assertEquals(HOSTS * SERVERS, statistics.get("size").asInt());
+        assertEquals(2 * HOSTS * SERVERS, statistics.get("hits").asInt());
+
+        // config-only reads are not cached by this policy
+        op.get(INCLUDE_RUNTIME).set(false);
+        handler.execute(op);
+        handler.execute(op);
+        assertEquals(3 * HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+
+        // hosts don't match the pattern
+        handler.execute(mapReduceOp("host", "*"));
+        handler.execute(mapReduceOp("host", "*"));
+        assertEquals(3 * HOSTS * SERVERS + 2 * HOSTS, client.executed(READ_RESOURCE_OPERATION));
+
+        handler.invalidateReadCache();
+        op.get(INCLUDE_RUNTIME).set(true);
+        handler.execute(op);
+        assertEquals(4 * HOSTS * SERVERS + 2 * HOSTS, client.executed(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void readCacheConfigProjection() {
+        client = SimulatedClient.domain(HOSTS, SERVERS);
+        handler = new MapReduceHandler(client, 8, 20);
+        handler.addReadCachePolicy(new ModelNode().add("host", "*").add("server-config", "*"), 0, 60000);
+
+        ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(INCLUDE_RUNTIME).set(false);
+        op.get(REDUCE).add("name").add("auto-start");
+        op.get(PROFILE).set(true);
+        ModelNode response = handler.execute(op);
+
+        // config-only projections are read using read-resource, since read-attribute returns runtime attributes
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertEquals(0, client.executed(READ_ATTRIBUTE_OPERATION));
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+        assertEquals(2, response.get(RESULT).get(0).get(RESULT).keys().size());
+        assertEquals(HOSTS * SERVERS, response.get(PROFILE, READ_RESOURCE_OPERATION).asInt());
+        assertEquals(0, response.get(PROFILE, "read-cache", "hits").asInt());
+
+        // ... and use the config-only time to live
+        response = handler.execute(op);
+        assertEquals(HOSTS * SERVERS, client.executed(READ_RESOURCE_OPERATION));
+        assertEquals(0, response.get(PROFILE, READ_RESOURCE_OPERATION).asInt());
+        assertEquals(HOSTS * SERVERS, response.get(PROFILE, "read-cache", "hits").asInt());
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        client = SimulatedClient.domain(5, 4).latency(20, 20);
+        handler = new MapReduceHandler(client);
+
+        final ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        op.get(FILTER).add("auto-start", true);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Callable<ModelNode>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(new Callable<ModelNode>() {
+                @Override
+                public ModelNode call() throws Exception {
+                    start.await();
+                    return handler.execute(op.clone());
+                }
+            });
+        }
+        ExecutorService callers = Executors.newFixedThreadPool(calls.size());
+        try {
+            List<Future<ModelNode>> futures = new ArrayList<>();
+            for (Callable<ModelNode> call : calls) {
+                futures.add(callers.submit(call));
+            }
+            start.countDown();
+            ModelNode expected = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<ModelNode> future : futures) {
+                assertEquals(expected, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        // one shared execution: a single read of all servers
+        assertEquals(0, client.executed(READ_ATTRIBUTE_OPERATION));
+        assertEquals(5 * 4, client.executed(READ_RESOURCE_OPERATION));
+        assertEquals(7, handler.metrics().getCoalescedOperations());
+    }
+
+    @Test
+    public void singleFlightDetachedByInvalidation() throws Exception {
+        client = SimulatedClient.domain(5, 4).latency(20, 20);
+        handler = new MapReduceHandler(client);
+
+        final ModelNode op = mapReduceOp("host", "*", "server-config", "*");
+        Callable<ModelNode> call = new Callable<ModelNode>() {
+            @Override
+            public ModelNode call() throws Exception {
+                return handler.execute(op.clone());
+            }
+        };
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<ModelNode> leader = callers.submit(call);
+            while (client.executed(READ_CHILDREN_NAMES_OPERATION) == 0) {
+                Thread.sleep(1);
+            }
+            // the leader is in flight, but must not be joined after the invalidation
+            handler.invalidateReadCache();
+            Future<ModelNode> next = callers.submit(call);
+            assertEquals(leader.get(10, TimeUnit.SECONDS), next.get(10, TimeUnit.SECONDS));
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(0, handler.metrics().getCoalescedOperations());
+        assertEquals(2 * 5 * 4, client.executed(READ_RESOURCE_OPERATION));
+    }
+
+    @Test
+    public void continuousQuery() throws Exception {
+        SimulatedClient.Resource root = new SimulatedClient.Resource();
+        SimulatedClient.Resource host = root.child("host", "master");
+        SimulatedClient.Resource server0 = host.child("server-config", "server0").attribute("status", "STARTED")
+                .attribute("socket-binding-port-offset", 0);
+        SimulatedClient.Resource server1 = host.child("server-config", "server1").attribute("status", "STOPPED")
+                .attribute("socket-binding-port-offset", 100);
+        SimulatedClient.Resource server2 = host.child("server-config", "server2").attribute("status", "STARTED")
+                .attribute("socket-binding-port-offset", 200);
+        client = new SimulatedClient(root);
+        handler = new MapReduceHandler(client);
+
+        final BlockingQueue<ModelNode> diffs = new LinkedBlockingQueue<>();
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("status", "STARTED");
+        MapReduceSubscription subscription = handler.subscribe(op, 10, TimeUnit.MILLISECONDS,
+                new MapReduceSubscriptionListener() {
+                    @Override
+                    public void onChange(final ModelNode diff) {
+                        diffs.add(diff);
+                    }
+
+                    @Override
+                    public void onFailure(final ModelNode outcome) {
+                        diffs.add(outcome);
+                    }
+                });
+
+        // initial results
+        ModelNode diff = diffs.poll(5, TimeUnit.SECONDS);
+        assertEquals(addresses("server0", "server2"), addresses(diff.get(ADDED)));
+        assertTrue(diff.get(CHANGED).asList().isEmpty());
+        assertTrue(diff.get(REMOVED).asList().isEmpty());
+
+        // unchanged evaluations are not reported
+        assertEquals(null, diffs.poll(100, TimeUnit.MILLISECONDS));
+
+        server0.attribute("status", "STOPPED");
+        server1.attribute("status", "STARTED");
+        server2.attribute("socket-binding-port-offset", 300);
+        Set<String> added = new HashSet<>();
+        Set<String> changed = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        while (added.isEmpty() || changed.isEmpty() || removed.isEmpty()) {
+            diff = diffs.poll(5, TimeUnit.SECONDS);
+            added.addAll(addresses(diff.get(ADDED)));
+            changed.addAll(addresses(diff.get(CHANGED)));
+            for (ModelNode address : diff.get(REMOVED).asList()) {
+                removed.add(address.asPropertyList().get(1).getValue().asString());
+            }
+        }
+        assertEquals(addresses("server1"), added);
+        assertEquals(addresses("server2"), changed);
+        assertEquals(addresses("server0"), removed);
+
+        subscription.cancel();
+        assertTrue(subscription.isCancelled());
+    }
+
+    @Test
+    public void continuousQueryFailingListener() throws Exception {
+        SimulatedClient.Resource root = new SimulatedClient.Resource();
+        SimulatedClient.Resource server0 = root.child("host", "master").child("server-config", "server0")
+                .attribute("status", "STARTED");
+        client = new SimulatedClient(root);
+        handler = new MapReduceHandler(client);
+
+        final BlockingQueue<ModelNode> diffs = new LinkedBlockingQueue<>();
+        final BlockingQueue<ModelNode> failures = new LinkedBlockingQueue<>();
+        MapReduceSubscription subscription = handler.subscribe(mapReduceOp("host", "master", "server-config", "*"),
+                10, TimeUnit.MILLISECONDS, new MapReduceSubscriptionListener() {
+                    private boolean first = true;
+
+                    @Override
+                    public void onChange(final ModelNode diff) {
+                        if (first) {
+                            first = false;
+                            throw new IllegalStateException("first change");
+                        }
+                        diffs.add(diff);
+                    }
+
+                    @Override
+                    public void onFailure(final ModelNode outcome) {
+                        failures.add(outcome);
+                    }
+                });
+
+        // the failing listener is reported and the subscription goes on
+        ModelNode failure = failures.poll(5, TimeUnit.SECONDS);
+        assertTrue(failure.get(FAILURE_DESCRIPTION).asString().contains("first change"));
+        server0.attribute("status", "STOPPED");
+        ModelNode diff = diffs.poll(5, TimeUnit.SECONDS);
+        assertEquals(addresses("server0"), addresses(diff.get(CHANGED)));
+
+        subscription.cancel();
+    }
+
+    @Test
+    public void delta() {
+        SimulatedClient.Resource root = new SimulatedClient.Resource();
+        SimulatedClient.Resource host = root.child("host", "master");
+        SimulatedClient.Resource server0 = host.child("server-config", "server0").attribute("status", "STARTED")
+                .attribute("socket-binding-port-offset", 0);
+        SimulatedClient.Resource server1 = host.child("server-config", "server1").attribute("status", "STOPPED")
+                .attribute("socket-binding-port-offset", 100);
+        SimulatedClient.Resource server2 = host.child("server-config", "server2").attribute("status", "STARTED")
+                .attribute("socket-binding-port-offset", 200);
+        client = new SimulatedClient(root);
+        handler = new MapReduceHandler(client);
+
+        ModelNode op = mapReduceOp("host", "master", "server-config", "*");
+        op.get(FILTER).add("status", "STARTED");
+        op.get(DELTA).set(true);
+        ModelNode response = handler.execute(op);
+        assertEquals(addresses("server0", "server2"), addresses(response.get(RESULT)));
+        assertTrue(response.hasDefined(VERSION));
+        assertEquals(16, response.get(VERSION).asString().length());
+
+        // nothing changed
+        op.get(VERSION).set(response.get(VERSION));
+        response = handler.execute(op);
+        assertEquals(SUCCESS, response.get(OUTCOME).asString());
+        assertTrue(response.get(RESULT).asList().isEmpty());
+        assertTrue(response.get(REMOVED).asList().isEmpty());
+        assertEquals(op.get(VERSION), response.get(VERSION));
+
+        server0.attribute("status", "STOPPED");
+        server1.attribute("status", "STARTED");
+        server2.attribute("socket-binding-port-offset", 300);
+        response = handler.execute(op);
+        assertEquals(addresses("server1", "server2"), addresses(response.get(RESULT)));
+        assertEquals(1, response.get(REMOVED).asList().size());
+        assertEquals("server0", response.get(REMOVED).get(0).asPropertyList().get(1).getValue().asString());
+
+        // unknown versions return the complete result
+        String version = response.get(VERSION).asString();
+        for (String unknown : new String[]{"foo", "0123456789abcdef"}) {
+            op.get(VERSION).set(unknown);
+            response = handler.execute(op);
+            assertEquals(SUCCESS, response.get(OUTCOME).asString());
+            assertFalse(response.get(DELTA).asBoolean());
+            assertFalse(response.hasDefined(REMOVED));
+            assertEquals(addresses("server1", "server2"), addresses(response.get(RESULT)));
+            assertEquals(version, response.get(VERSION).asString());
+        }
+    }
+
+    private Set<String> addresses(String... servers) {
+        return new HashSet<>(Arrays.asList(servers));
+    }
+
+    private Set<String> addresses(ModelNode results) {
+        Set<String> servers = new HashSet<>();
+        for (ModelNode result : results.asList()) {
+            servers.add(result.get(ADDRESS_TEMPLATE).asPropertyList().get(1).getValue().asString());
+        }
+        return servers;
+    }
+
+    private ModelNode mapReduceOp(String... address) {
+        ModelNode op = new ModelNode();
+        op.get(OP).set(MAP_REDUCE_OP);
+        for (int i = 0; i < address.length; i += 2) {
+            op.get(ADDRESS_TEMPLATE).add(address[i], address[i + 1]);
+        }
+        return op;
+    }
+}